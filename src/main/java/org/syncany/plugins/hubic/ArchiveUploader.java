@@ -0,0 +1,206 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.syncany.api.transfer.StorageException;
+import org.syncany.plugins.hubic.adioss.HubicClient;
+import org.syncany.plugins.hubic.adioss.Response;
+
+/**
+ * Uploads many small files as tar archives, each of which the Swift bulk
+ * middleware extracts into one object for each file, so that a batch of
+ * hundreds of small files costs a single round trip.  Each archive is built
+ * in memory, so that it can be retried, while the previous one is sent.
+ * <p>
+ * If the server turns down archive uploads, because it does not have the
+ * bulk middleware, the files are uploaded one request each, all in flight at
+ * once, and archives are not tried again.
+ */
+class ArchiveUploader {
+	/**
+	 * Files up to this size are worth batching, which covers the action,
+	 * transaction and most database files.
+	 */
+	static final long MAX_FILE_SIZE = 256 * 1024;
+
+	/**
+	 * Swift gives up on an archive after 1000 failed files, so an archive
+	 * never holds more.
+	 */
+	static final int MAX_FILES_PER_ARCHIVE = 1000;
+
+	static final long MAX_ARCHIVE_SIZE = 16 * 1024 * 1024;
+
+	private final HubicClient hubicClient;
+	private final int maxFilesPerArchive;
+
+	private volatile boolean archiveUploadSupported = true;
+
+	ArchiveUploader(HubicClient hubicClient) {
+		this(hubicClient, MAX_FILES_PER_ARCHIVE);
+	}
+
+	ArchiveUploader(HubicClient hubicClient, int maxFilesPerArchive) {
+		this.hubicClient = hubicClient;
+		this.maxFilesPerArchive = maxFilesPerArchive;
+	}
+
+	boolean shouldBatch(File localFile) {
+		return localFile.length() <= MAX_FILE_SIZE;
+	}
+
+	boolean isArchiveUploadSupported() {
+		return archiveUploadSupported;
+	}
+
+	/**
+	 * Uploads all the given files.  Every file is attempted even if others
+	 * fail.
+	 *
+	 * @param files the local files, keyed by the path of their object
+	 * @return the cause of each failed upload, keyed by path, in the order
+	 *         the files were given
+	 */
+	Map<String, StorageException> uploadAll(Map<String, File> files) throws StorageException {
+		List<Map<String, File>> batches = new ArrayList<>();
+		Map<String, File> batch = new LinkedHashMap<>();
+		long batchSize = 0;
+		for (Map.Entry<String, File> file : files.entrySet()) {
+			long entrySize = TarWriter.entrySize(file.getValue().length());
+			if (!batch.isEmpty() && (batch.size() >= maxFilesPerArchive || batchSize + entrySize > MAX_ARCHIVE_SIZE)) {
+				batches.add(batch);
+				batch = new LinkedHashMap<>();
+				batchSize = 0;
+			}
+			batch.put(file.getKey(), file.getValue());
+			batchSize += entrySize;
+		}
+		if (!batch.isEmpty()) {
+			batches.add(batch);
+		}
+
+		Map<String, StorageException> failures = new HashMap<>();
+		Map<String, File> singleUploads = new LinkedHashMap<>();
+		CompletableFuture<Response> previousUpload = null;
+		Map<String, File> previousBatch = null;
+		for (Map<String, File> nextBatch : batches) {
+			CompletableFuture<Response> nextUpload = null;
+			if (archiveUploadSupported) {
+				try {
+					nextUpload = hubicClient.uploadArchiveAsync(createArchive(nextBatch));
+				} catch (IOException e) {
+					// Unreadable files fail on their own when uploaded singly
+				}
+			}
+			if (nextUpload == null) {
+				singleUploads.putAll(nextBatch);
+			}
+
+			if (previousUpload != null) {
+				awaitArchive(previousUpload, previousBatch, failures, singleUploads);
+			}
+			previousUpload = nextUpload;
+			previousBatch = nextBatch;
+		}
+		if (previousUpload != null) {
+			awaitArchive(previousUpload, previousBatch, failures, singleUploads);
+		}
+		failures.putAll(uploadSingly(singleUploads));
+
+		Map<String, StorageException> orderedFailures = new LinkedHashMap<>();
+		for (String path : files.keySet()) {
+			if (failures.containsKey(path)) {
+				orderedFailures.put(path, failures.get(path));
+			}
+		}
+		return orderedFailures;
+	}
+
+	private static byte[] createArchive(Map<String, File> batch) throws IOException {
+		TarWriter tarWriter = new TarWriter();
+		for (Map.Entry<String, File> file : batch.entrySet()) {
+			tarWriter.add(file.getKey(), Files.readAllBytes(file.getValue().toPath()));
+		}
+		return tarWriter.finish();
+	}
+
+	/**
+	 * Adds the failures of one archive upload, or the whole batch to the
+	 * single uploads if the archive was not extracted.
+	 */
+	private void awaitArchive(CompletableFuture<Response> upload, Map<String, File> batch, Map<String, StorageException> failures,
+			Map<String, File> singleUploads) throws StorageException {
+		Response response;
+		try {
+			response = HubicClient.await(upload);
+		} catch (IOException e) {
+			if (Thread.currentThread().isInterrupted()) {
+				throw new StorageException("Interrupted while uploading", e);
+			}
+			singleUploads.putAll(batch);
+			return;
+		}
+
+		BulkResult result = BulkResult.parse(response, "Number Files Created");
+		if (result == null) {
+			// A server error may pass, but any other answer means that archive
+			// uploads are not available here
+			if (response.getCode() < 500) {
+				archiveUploadSupported = false;
+			}
+			singleUploads.putAll(batch);
+		} else if (result.isRequestFailed()) {
+			singleUploads.putAll(batch);
+		} else {
+			failures.putAll(result.getFailures(batch.keySet(), "upload"));
+		}
+	}
+
+	private Map<String, StorageException> uploadSingly(Map<String, File> files) throws StorageException {
+		Map<String, CompletableFuture<Response>> uploads = new LinkedHashMap<>();
+		for (Map.Entry<String, File> file : files.entrySet()) {
+			uploads.put(file.getKey(), hubicClient.uploadAsync(file.getValue(), file.getKey()));
+		}
+
+		Map<String, StorageException> failures = new HashMap<>();
+		for (Map.Entry<String, CompletableFuture<Response>> upload : uploads.entrySet()) {
+			try {
+				int code = HubicClient.await(upload.getValue()).getCode();
+				if (code != 201) {
+					failures.put(upload.getKey(), new StorageException("Unable to upload, code = " + code));
+				}
+			} catch (IOException e) {
+				if (Thread.currentThread().isInterrupted()) {
+					throw new StorageException("Interrupted while uploading", e);
+				}
+				failures.put(upload.getKey(), new StorageException("upload failed", e));
+			}
+		}
+		return failures;
+	}
+}
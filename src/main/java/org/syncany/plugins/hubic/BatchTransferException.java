@@ -0,0 +1,49 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.syncany.api.transfer.RemoteFile;
+import org.syncany.api.transfer.StorageException;
+
+/**
+ * Thrown by the batch operations of {@link HubicTransferManager} when one or
+ * more of the files in the batch could not be transferred.  All other files
+ * in the batch were transferred successfully.
+ */
+public class BatchTransferException extends StorageException {
+	private static final long serialVersionUID = 1L;
+
+	private final Map<RemoteFile, StorageException> failures;
+
+	/**
+	 * @param failures the cause of each failed transfer, keyed by remote file,
+	 *        in the order in which the files were given to the batch operation
+	 */
+	public BatchTransferException(Map<RemoteFile, StorageException> failures) {
+		super(failures.size() + " transfer(s) failed, first failure: " + failures.values().iterator().next().getMessage(),
+				failures.values().iterator().next());
+		this.failures = Collections.unmodifiableMap(failures);
+	}
+
+	public Map<RemoteFile, StorageException> getFailures() {
+		return failures;
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.syncany.api.transfer.StorageException;
+import org.syncany.plugins.hubic.adioss.HubicClient;
+import org.syncany.plugins.hubic.adioss.Response;
+
+/**
+ * Deletes many objects with Swift bulk delete requests, each of which deletes
+ * a batch of objects, with all the batches in flight at once.
+ * <p>
+ * If the server turns down bulk deletes, because it does not have the bulk
+ * delete middleware, the objects are deleted one request each, all in
+ * flight at once, and bulk deletes are not tried again.
+ * <p>
+ * Bulk deletes remove the manifest of a large object but not its segments,
+ * so large objects must not be deleted this way.
+ */
+class BulkDeleter {
+	/**
+	 * Well under the Swift default limit of 10000, so that each request is
+	 * quick enough not to time out.
+	 */
+	static final int MAX_PATHS_PER_REQUEST = 1000;
+
+	private final HubicClient hubicClient;
+	private final int maxPathsPerRequest;
+
+	private volatile boolean bulkDeleteSupported = true;
+
+	BulkDeleter(HubicClient hubicClient) {
+		this(hubicClient, MAX_PATHS_PER_REQUEST);
+	}
+
+	BulkDeleter(HubicClient hubicClient, int maxPathsPerRequest) {
+		this.hubicClient = hubicClient;
+		this.maxPathsPerRequest = maxPathsPerRequest;
+	}
+
+	boolean isBulkDeleteSupported() {
+		return bulkDeleteSupported;
+	}
+
+	/**
+	 * Deletes all the given objects.  Every object is attempted even if
+	 * others fail, and an object that did not exist counts as deleted.
+	 *
+	 * @return the cause of each failed delete, keyed by path, in the order
+	 *         the paths were given
+	 */
+	Map<String, StorageException> deleteAll(List<String> paths) throws StorageException {
+		List<List<String>> batches = new ArrayList<>();
+		for (int start = 0; start < paths.size(); start += maxPathsPerRequest) {
+			batches.add(paths.subList(start, Math.min(paths.size(), start + maxPathsPerRequest)));
+		}
+
+		List<CompletableFuture<Response>> bulkDeletes = new ArrayList<>();
+		if (bulkDeleteSupported) {
+			for (List<String> batch : batches) {
+				bulkDeletes.add(hubicClient.bulkDeleteAsync(batch));
+			}
+		}
+
+		Map<String, StorageException> failures = new HashMap<>();
+		List<String> singleDeletes = new ArrayList<>();
+		for (int i = 0; i < batches.size(); i++) {
+			Map<String, StorageException> batchFailures = bulkDeletes.isEmpty() ? null : awaitBulkDelete(bulkDeletes.get(i), batches.get(i));
+			if (batchFailures == null) {
+				singleDeletes.addAll(batches.get(i));
+			} else {
+				failures.putAll(batchFailures);
+			}
+		}
+		failures.putAll(deleteSingly(singleDeletes));
+
+		Map<String, StorageException> orderedFailures = new LinkedHashMap<>();
+		for (String path : paths) {
+			if (failures.containsKey(path)) {
+				orderedFailures.put(path, failures.get(path));
+			}
+		}
+		return orderedFailures;
+	}
+
+	/**
+	 * @return the failures of one bulk delete, or null if the batch must
+	 *         instead be deleted one object at a time
+	 */
+	private Map<String, StorageException> awaitBulkDelete(CompletableFuture<Response> bulkDelete, List<String> batch) throws StorageException {
+		Response response;
+		try {
+			response = HubicClient.await(bulkDelete);
+		} catch (IOException e) {
+			if (Thread.currentThread().isInterrupted()) {
+				throw new StorageException("Interrupted while deleting", e);
+			}
+			return null;
+		}
+
+		BulkResult result = BulkResult.parse(response, "Number Deleted");
+		if (result == null) {
+			// A server error may pass, but any other answer means that bulk
+			// deletes are not available here
+			if (response.getCode() < 500) {
+				bulkDeleteSupported = false;
+			}
+			return null;
+		}
+		return result.isRequestFailed() ? null : result.getFailures(batch, "delete");
+	}
+
+	private Map<String, StorageException> deleteSingly(List<String> paths) throws StorageException {
+		List<CompletableFuture<Response>> deletes = new ArrayList<>();
+		for (String path : paths) {
+			deletes.add(hubicClient.deleteAsync(path));
+		}
+
+		Map<String, StorageException> failures = new HashMap<>();
+		for (int i = 0; i < paths.size(); i++) {
+			try {
+				int code = HubicClient.await(deletes.get(i)).getCode();
+				if (code != 200 && code != 204 && code != 404) {
+					failures.put(paths.get(i), new StorageException("Unable to delete, code = " + code));
+				}
+			} catch (IOException e) {
+				if (Thread.currentThread().isInterrupted()) {
+					throw new StorageException("Interrupted while deleting", e);
+				}
+				failures.put(paths.get(i), new StorageException("delete failed", e));
+			}
+		}
+		return failures;
+	}
+}
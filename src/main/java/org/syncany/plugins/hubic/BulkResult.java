@@ -0,0 +1,103 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.syncany.api.transfer.StorageException;
+import org.syncany.plugins.hubic.adioss.HubicClient;
+import org.syncany.plugins.hubic.adioss.Response;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * The result of a request to the Swift bulk middleware, either a bulk delete
+ * or an archive upload, which reports the status of each object that failed.
+ */
+class BulkResult {
+	private final String status;
+	private final JsonArray errors;
+
+	private BulkResult(String status, JsonArray errors) {
+		this.status = status;
+		this.errors = errors;
+	}
+
+	/**
+	 * @param countKey a key that every result of this kind of request has,
+	 *        such as "Number Deleted"
+	 * @return the result, or null if the response is not one, as when the
+	 *         server does not have the bulk middleware
+	 */
+	static BulkResult parse(Response response, String countKey) {
+		if (response.getCode() != 200 || !(response.getContent() instanceof String)) {
+			return null;
+		}
+
+		JsonObject result;
+		try {
+			JsonElement element = new JsonParser().parse((String) response.getContent());
+			if (!element.isJsonObject() || !element.getAsJsonObject().has(countKey)) {
+				return null;
+			}
+			result = element.getAsJsonObject();
+		} catch (JsonSyntaxException e) {
+			return null;
+		}
+
+		String status = result.has("Response Status") ? result.get("Response Status").getAsString() : "200 OK";
+		JsonElement errors = result.get("Errors");
+		return new BulkResult(status, errors != null && errors.isJsonArray() ? errors.getAsJsonArray() : new JsonArray());
+	}
+
+	/**
+	 * @return the cause of each failure among the given paths
+	 */
+	Map<String, StorageException> getFailures(Collection<String> paths, String action) {
+		Map<String, String> pathsAsSent = new HashMap<>();
+		for (String path : paths) {
+			pathsAsSent.put(HubicClient.bulkPath(path), path);
+		}
+
+		Map<String, StorageException> failures = new HashMap<>();
+		for (JsonElement error : errors) {
+			// An archive upload reports paths with the account in front
+			String pathAsSent = error.getAsJsonArray().get(0).getAsString();
+			int container = pathAsSent.indexOf("/default/");
+			String path = container == -1 ? null : pathsAsSent.get(pathAsSent.substring(container));
+			if (path != null) {
+				failures.put(path, new StorageException("Unable to " + action + ", status = " + error.getAsJsonArray().get(1).getAsString()));
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * @return whether the request as a whole failed, for example as too
+	 *         large, rather than any one object
+	 */
+	boolean isRequestFailed() {
+		return errors.size() == 0 && !status.startsWith("2");
+	}
+}
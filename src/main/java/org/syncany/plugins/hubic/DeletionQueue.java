@@ -0,0 +1,315 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.api.transfer.StorageException;
+import org.syncany.plugins.hubic.adioss.HubicClient;
+import org.syncany.plugins.hubic.adioss.Response;
+
+/**
+ * Deletes objects in the background, so that a move returns as soon as the
+ * copy is made.  A delete that fails is tried again later, for as long as
+ * it takes.
+ * <p>
+ * The pending deletes are kept in a journal file, so that they are finished
+ * by the next transfer manager if this one goes away first.  Until then,
+ * {@link #isPending} tells callers to treat the objects as already gone.
+ * <p>
+ * The journal is per account, so it is shared by every process using the
+ * account, such as a daemon and a command line run.  Each process only adds
+ * and removes its own deletes, under a lock on the journal, merging them
+ * with the deletes that the other processes have journalled.
+ */
+class DeletionQueue {
+	private static final Logger logger = Logger.getLogger(DeletionQueue.class.getSimpleName());
+
+	private static final long INITIAL_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+	private static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+	/**
+	 * Serializes updates of journals within this JVM, which a file lock does
+	 * not, as the JVM holds a file lock for all its threads.
+	 */
+	private static final ReentrantLock JOURNAL_LOCK = new ReentrantLock();
+
+	private static final ScheduledExecutorService RETRY_SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "hubic-deletion-retry");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final HubicClient hubicClient;
+	private final File journalFile;
+	private final long initialRetryDelayMillis;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition emptied = lock.newCondition();
+
+	/**
+	 * The pending deletes, each with the delete request in flight for it, or
+	 * null while waiting to retry.
+	 */
+	private final Map<String, CompletableFuture<Response>> pending = new HashMap<>();
+
+	/**
+	 * @param journalFile the file keeping the pending deletes, whose
+	 *        deletes are started at once
+	 */
+	DeletionQueue(HubicClient hubicClient, File journalFile) {
+		this(hubicClient, journalFile, INITIAL_RETRY_DELAY_MILLIS);
+	}
+
+	DeletionQueue(HubicClient hubicClient, File journalFile, long initialRetryDelayMillis) {
+		this.hubicClient = hubicClient;
+		this.journalFile = journalFile;
+		this.initialRetryDelayMillis = initialRetryDelayMillis;
+
+		List<String> journalled = readJournal();
+		lock.lock();
+		try {
+			for (String path : journalled) {
+				pending.put(path, null);
+			}
+		} finally {
+			lock.unlock();
+		}
+		for (String path : journalled) {
+			startDelete(path, initialRetryDelayMillis);
+		}
+	}
+
+	/**
+	 * Journals the delete of the object, then starts it.
+	 */
+	void enqueue(String path) throws StorageException {
+		lock.lock();
+		try {
+			if (pending.containsKey(path)) {
+				return;
+			}
+			pending.put(path, null);
+			try {
+				updateJournal(Collections.singleton(path), Collections.<String>emptySet());
+			} catch (StorageException e) {
+				pending.remove(path);
+				throw e;
+			}
+		} finally {
+			lock.unlock();
+		}
+		startDelete(path, initialRetryDelayMillis);
+	}
+
+	/**
+	 * Drops a pending delete of the object, because it is about to be
+	 * written again, and waits for any delete already in flight for it.
+	 */
+	void cancel(String path) throws StorageException {
+		CompletableFuture<Response> inFlight;
+		lock.lock();
+		try {
+			if (!pending.containsKey(path)) {
+				return;
+			}
+			inFlight = pending.remove(path);
+			signalIfEmpty();
+			updateJournal(Collections.<String>emptySet(), Collections.singleton(path));
+		} finally {
+			lock.unlock();
+		}
+
+		if (inFlight != null) {
+			try {
+				HubicClient.await(inFlight);
+			} catch (IOException e) {
+				// Whether or not it got through, the object is written afterwards
+			}
+		}
+	}
+
+	boolean isPending(String path) {
+		lock.lock();
+		try {
+			return pending.containsKey(path);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int getPendingCount() {
+		lock.lock();
+		try {
+			return pending.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until no deletes are pending, or the timeout passes.
+	 *
+	 * @return whether all deletes are done
+	 */
+	boolean awaitEmpty(long timeout, TimeUnit unit) throws InterruptedException {
+		long remainingNanos = unit.toNanos(timeout);
+		lock.lock();
+		try {
+			while (!pending.isEmpty()) {
+				if (remainingNanos <= 0) {
+					return false;
+				}
+				remainingNanos = emptied.awaitNanos(remainingNanos);
+			}
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void startDelete(String path, long nextRetryDelayMillis) {
+		CompletableFuture<Response> delete;
+		lock.lock();
+		try {
+			if (!pending.containsKey(path)) {
+				// Cancelled
+				return;
+			}
+			delete = hubicClient.deleteAsync(path);
+			pending.put(path, delete);
+		} finally {
+			lock.unlock();
+		}
+
+		delete.whenComplete((response, failure) -> {
+			int code = response != null ? response.getCode() : -1;
+			if (code == 200 || code == 204 || code == 404) {
+				finish(path, delete);
+			} else {
+				logger.log(Level.INFO, "Delete of " + path + " failed, code = " + code + ", retrying in " + nextRetryDelayMillis + " ms", failure);
+				retryLater(path, delete, nextRetryDelayMillis);
+			}
+		});
+	}
+
+	private void finish(String path, CompletableFuture<Response> delete) {
+		lock.lock();
+		try {
+			// Unless cancelled, and perhaps enqueued again, meanwhile
+			if (pending.get(path) == delete) {
+				pending.remove(path);
+				signalIfEmpty();
+				updateJournal(Collections.<String>emptySet(), Collections.singleton(path));
+			}
+		} catch (StorageException e) {
+			// The delete is done, and at worst is done again by the next
+			// transfer manager, which finds the object already gone
+			logger.log(Level.WARNING, "Unable to update the deletion journal", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void retryLater(String path, CompletableFuture<Response> delete, long delayMillis) {
+		lock.lock();
+		try {
+			if (pending.get(path) != delete) {
+				return;
+			}
+			pending.put(path, null);
+		} finally {
+			lock.unlock();
+		}
+		RETRY_SCHEDULER.schedule(() -> startDelete(path, Math.min(MAX_RETRY_DELAY_MILLIS, delayMillis * 2)), delayMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	private void signalIfEmpty() {
+		if (pending.isEmpty()) {
+			emptied.signalAll();
+		}
+	}
+
+	private List<String> readJournal() {
+		try {
+			return readJournalLines();
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Unable to read the deletion journal " + journalFile, e);
+			return new ArrayList<String>();
+		}
+	}
+
+	private List<String> readJournalLines() throws IOException {
+		return journalFile.exists() ? Files.readAllLines(journalFile.toPath(), StandardCharsets.UTF_8) : new ArrayList<String>();
+	}
+
+	/**
+	 * Adds and removes this process's deletes in the journal, keeping those
+	 * of other processes.  The journal is locked against other processes
+	 * while it is read and replaced, and replaced in one step so that a crash
+	 * never leaves a partly written journal.
+	 */
+	private void updateJournal(Collection<String> added, Collection<String> removed) throws StorageException {
+		File lockFile = new File(journalFile.getPath() + ".lock");
+		File tempFile = new File(journalFile.getPath() + ".tmp");
+		JOURNAL_LOCK.lock();
+		try {
+			Files.createDirectories(journalFile.getAbsoluteFile().getParentFile().toPath());
+			try (FileChannel lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+				FileLock fileLock = lockChannel.lock();
+				try {
+					Set<String> paths = new LinkedHashSet<>(readJournalLines());
+					paths.addAll(added);
+					paths.removeAll(removed);
+					Files.write(tempFile.toPath(), paths, StandardCharsets.UTF_8);
+					Files.move(tempFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} finally {
+					fileLock.release();
+				}
+			}
+		} catch (IOException e) {
+			throw new StorageException("Unable to write the deletion journal " + journalFile, e);
+		} finally {
+			JOURNAL_LOCK.unlock();
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.syncany.api.transfer.StorageException;
+import org.syncany.plugins.hubic.adioss.ContainerStats;
+import org.syncany.plugins.hubic.adioss.HubicClient;
+import org.syncany.plugins.hubic.adioss.ListingEntry;
+import org.syncany.plugins.hubic.adioss.Response;
+
+/**
+ * Lists a directory page by page using Swift's marker/limit pagination, so
+ * listings are never truncated at the server's page size.
+ * <p>
+ * Pages are fetched on a background thread and handed over through a queue
+ * holding a single page, so the next page is already on its way while the
+ * caller processes the current one, and memory use does not grow with the
+ * size of the directory.  If the caller stops part way through, the
+ * background thread sees that the listing was abandoned and stops too,
+ * rather than waiting for ever to hand over a page nobody will take.
+ */
+class DirectoryLister {
+	static final int PAGE_SIZE = 1000;
+
+	interface EntryConsumer {
+		void accept(ListingEntry entry) throws StorageException;
+	}
+
+	private static final ExecutorService pageFetchers = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "hubic-list");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Marks the end of the listing in the queue.
+	 */
+	private static final List<ListingEntry> END = new ArrayList<>();
+
+	/**
+	 * How often a page waiting to be handed over checks whether the listing
+	 * was abandoned.
+	 */
+	private static final long HANDOVER_CHECK_MILLIS = 100;
+
+	private final HubicClient hubicClient;
+	private final int pageSize;
+
+	DirectoryLister(HubicClient hubicClient) {
+		this(hubicClient, PAGE_SIZE);
+	}
+
+	DirectoryLister(HubicClient hubicClient, int pageSize) {
+		this.hubicClient = hubicClient;
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Passes every entry in the given directory to the consumer, in the order
+	 * returned by the server, as the pages arrive.
+	 *
+	 * @return the container stats reported with the first page, or null if the
+	 *         server did not report them
+	 */
+	ContainerStats list(String path, EntryConsumer consumer) throws StorageException {
+		BlockingQueue<List<ListingEntry>> pages = new ArrayBlockingQueue<>(1);
+		AtomicReference<ContainerStats> containerStats = new AtomicReference<>();
+		AtomicBoolean abandoned = new AtomicBoolean();
+		Future<Void> fetcher = pageFetchers.submit(() -> {
+			fetchPages(path, pages, abandoned, containerStats);
+			return null;
+		});
+
+		try {
+			for (List<ListingEntry> page = pages.take(); page != END; page = pages.take()) {
+				for (ListingEntry entry : page) {
+					consumer.accept(entry);
+				}
+			}
+			// Rethrows any failure of the fetcher
+			fetcher.get();
+			return containerStats.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new StorageException("Interrupted while listing " + path, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof StorageException) {
+				throw (StorageException) e.getCause();
+			}
+			throw new StorageException("list directory failed", e.getCause());
+		} finally {
+			// Frees the fetcher if it is waiting to hand over a page, or stops
+			// it at its next page if the listing was not finished
+			abandoned.set(true);
+			pages.clear();
+			fetcher.cancel(true);
+		}
+	}
+
+	private void fetchPages(String path, BlockingQueue<List<ListingEntry>> pages, AtomicBoolean abandoned,
+			AtomicReference<ContainerStats> containerStats) throws StorageException, InterruptedException {
+		try {
+			String marker = null;
+			List<ListingEntry> page;
+			do {
+				page = fetchPage(path, marker, containerStats);
+				if (!page.isEmpty()) {
+					if (!handOver(pages, page, abandoned)) {
+						return;
+					}
+					marker = page.get(page.size() - 1).getName();
+				}
+			} while (page.size() >= pageSize);
+		} finally {
+			// Always wake the consumer, which then checks for a failure
+			handOver(pages, END, abandoned);
+		}
+	}
+
+	/**
+	 * Waits for the consumer to take the previous page, then queues this one.
+	 *
+	 * @return false if the consumer abandoned the listing instead
+	 */
+	private static boolean handOver(BlockingQueue<List<ListingEntry>> pages, List<ListingEntry> page, AtomicBoolean abandoned)
+			throws InterruptedException {
+		while (!pages.offer(page, HANDOVER_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+			if (abandoned.get()) {
+				return false;
+			}
+		}
+		return !abandoned.get();
+	}
+
+	private List<ListingEntry> fetchPage(String path, String marker, AtomicReference<ContainerStats> containerStats) throws StorageException {
+		try {
+			Response response = hubicClient.listDirectory(path, marker, pageSize);
+			if (marker == null) {
+				containerStats.set(ContainerStats.fromResponse(response));
+			}
+			if (response.getCode() == 204) {
+				// An empty container
+				return new ArrayList<>();
+			} else if (response.getCode() != 200) {
+				throw new StorageException("Failed to get directory listing for " + path + ", error code = " + response.getCode());
+			}
+
+			@SuppressWarnings("unchecked")
+			List<ListingEntry> page = (List<ListingEntry>) response.getContent();
+			if (page == null) {
+				throw new StorageException("Failed to read directory listing for " + path);
+			}
+			return page;
+		} catch (IOException e) {
+			throw new StorageException("list directory failed", e);
+		}
+	}
+}
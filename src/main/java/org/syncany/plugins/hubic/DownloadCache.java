@@ -0,0 +1,346 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.syncany.api.transfer.StorageException;
+import org.syncany.plugins.hubic.adioss.Checksums;
+import org.syncany.plugins.hubic.adioss.ClientMetrics;
+import org.syncany.plugins.hubic.adioss.HubicClient;
+import org.syncany.plugins.hubic.adioss.ObjectMetadata;
+import org.syncany.plugins.hubic.adioss.Response;
+
+/**
+ * A read-through cache of downloaded objects on local disk, each kept with
+ * the ETag it had when downloaded.  A cached object is revalidated with a
+ * conditional GET, which costs no transfer if the object is unchanged, and
+ * otherwise downloads the new version in the same request.
+ * <p>
+ * Each object is cached in a file named by a hash of its path, its ETag and
+ * the MD5 of its content, so that the cache survives restarts without an
+ * index.  The MD5 is checked whenever a cached copy is used, as the ETag of a
+ * large object is not the MD5 of its content and so cannot be.  The least
+ * recently used objects are evicted once the cache grows past its maximum
+ * size.  The cache is only an optimization, so a failure to read or write it
+ * is logged and the object downloaded as if it were not cached.
+ */
+class DownloadCache {
+	private static final Logger logger = Logger.getLogger(DownloadCache.class.getSimpleName());
+
+	private static final Pattern CACHE_FILE_NAME = Pattern.compile("([0-9a-f]{32})\\.([0-9A-Za-z]+)\\.([0-9a-f]{32})");
+	private static final Pattern CACHEABLE_ETAG = Pattern.compile("[0-9A-Za-z]+");
+
+	private static class Entry {
+		final String etag;
+		final String md5;
+		final File file;
+		final long size;
+
+		Entry(String etag, String md5, File file, long size) {
+			this.etag = etag;
+			this.md5 = md5;
+			this.file = file;
+			this.size = size;
+		}
+	}
+
+	private final HubicClient hubicClient;
+	private final RangedDownloader rangedDownloader;
+	private final File directory;
+	private final long maxSize;
+
+	/**
+	 * The cached objects, keyed by the hash of their path, from the least to
+	 * the most recently used.  Guarded by itself, along with totalSize.
+	 */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long totalSize;
+
+	/**
+	 * @param rangedDownloader the downloader of objects that are not cached
+	 * @param directory the directory holding the cached objects, which are
+	 *        loaded from any previous run
+	 * @param maxSize the maximum total size of the cached objects in bytes,
+	 *        with 0 disabling the cache
+	 */
+	DownloadCache(HubicClient hubicClient, RangedDownloader rangedDownloader, File directory, long maxSize) {
+		this.hubicClient = hubicClient;
+		this.rangedDownloader = rangedDownloader;
+		this.directory = directory;
+		this.maxSize = maxSize;
+
+		if (maxSize > 0) {
+			load();
+		}
+	}
+
+	/**
+	 * @return the number of downloads served from the cache, as counted in
+	 *         the client's {@link ClientMetrics}
+	 */
+	long getHitCount() {
+		return hubicClient.getMetrics().getCacheHitCount();
+	}
+
+	/**
+	 * @return the number of downloads that fetched the object, whether it was
+	 *         not cached or had changed
+	 */
+	long getMissCount() {
+		return hubicClient.getMetrics().getCacheMissCount();
+	}
+
+	/**
+	 * @return the number of objects dropped to keep within the maximum size
+	 */
+	long getEvictionCount() {
+		return hubicClient.getMetrics().getCacheEvictionCount();
+	}
+
+	/**
+	 * @return the total size of the cached objects in bytes
+	 */
+	long getSize() {
+		synchronized (entries) {
+			return totalSize;
+		}
+	}
+
+	/**
+	 * Downloads the object, or copies it from the cache if it is unchanged.
+	 */
+	void download(String source, File localFile) throws StorageException {
+		if (maxSize <= 0) {
+			rangedDownloader.download(source, localFile);
+			return;
+		}
+
+		String key = toKey(source);
+		Entry entry = get(key);
+		if (entry != null) {
+			try {
+				Response response = hubicClient.downloadIfNoneMatch(source, localFile, entry.etag);
+				if (response.getCode() == 304 && copy(key, entry, localFile)) {
+					hubicClient.getMetrics().recordCacheHit();
+					return;
+				} else if (response.getCode() == 200 && response.getContent() != null) {
+					hubicClient.getMetrics().recordCacheMiss();
+					put(key, ObjectMetadata.fromResponse(response).getEtag(), localFile);
+					return;
+				} else if (response.getCode() == 404) {
+					remove(key);
+					throw new StorageException("Download of " + source + " failed, code = 404");
+				}
+			} catch (IOException e) {
+				// Left to the ranged download, which retries
+			}
+		}
+
+		hubicClient.getMetrics().recordCacheMiss();
+		put(key, rangedDownloader.download(source, localFile), localFile);
+	}
+
+	private static String toKey(String path) {
+		return Checksums.toHex(Checksums.newMd5().digest(path.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private Entry get(String key) {
+		synchronized (entries) {
+			return entries.get(key);
+		}
+	}
+
+	/**
+	 * @return whether the cached copy was still there to copy, and intact
+	 */
+	private boolean copy(String key, Entry entry, File localFile) {
+		MessageDigest md5 = Checksums.newMd5();
+		try (InputStream inputStream = new DigestInputStream(Files.newInputStream(entry.file.toPath()), md5)) {
+			Files.copy(inputStream, localFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			// Evicted meanwhile, most likely
+			logger.log(Level.FINE, "Unable to copy " + entry.file + " from the download cache", e);
+			return false;
+		}
+
+		if (!Checksums.toHex(md5.digest()).equals(entry.md5)) {
+			logger.log(Level.WARNING, "Dropping " + entry.file + " from the download cache, as its content is corrupt");
+			remove(key, entry);
+			return false;
+		}
+
+		// Keeps the order of use for the next run
+		entry.file.setLastModified(System.currentTimeMillis());
+		return true;
+	}
+
+	/**
+	 * Caches a copy of the downloaded object, replacing any older version.
+	 */
+	private void put(String key, String etag, File localFile) {
+		long size = localFile.length();
+		if (etag == null || !CACHEABLE_ETAG.matcher(etag).matches() || size > maxSize) {
+			remove(key);
+			return;
+		}
+
+		File tempFile = null;
+		File cachedFile;
+		String md5;
+		try {
+			Files.createDirectories(directory.toPath());
+			// Unique, as several threads may cache the same object at once
+			tempFile = File.createTempFile(key + ".", ".tmp", directory);
+			MessageDigest digest = Checksums.newMd5();
+			try (InputStream inputStream = new DigestInputStream(Files.newInputStream(localFile.toPath()), digest)) {
+				Files.copy(inputStream, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			md5 = Checksums.toHex(digest.digest());
+			cachedFile = new File(directory, key + "." + etag + "." + md5);
+			Files.move(tempFile.toPath(), cachedFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Unable to add " + localFile + " to the download cache", e);
+			if (tempFile != null) {
+				tempFile.delete();
+			}
+			return;
+		}
+
+		List<File> unusedFiles = new ArrayList<>();
+		synchronized (entries) {
+			Entry previous = entries.put(key, new Entry(etag, md5, cachedFile, size));
+			totalSize += size;
+			if (previous != null) {
+				totalSize -= previous.size;
+				if (!previous.file.equals(cachedFile)) {
+					unusedFiles.add(previous.file);
+				}
+			}
+			evict(unusedFiles);
+		}
+		delete(unusedFiles);
+	}
+
+	private void remove(String key) {
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.remove(key);
+			if (entry != null) {
+				totalSize -= entry.size;
+			}
+		}
+		if (entry != null) {
+			entry.file.delete();
+		}
+	}
+
+	/**
+	 * Removes the given entry, unless it has been replaced meanwhile.
+	 */
+	private void remove(String key, Entry entry) {
+		boolean removed;
+		synchronized (entries) {
+			removed = entries.remove(key, entry);
+			if (removed) {
+				totalSize -= entry.size;
+			}
+		}
+		if (removed) {
+			entry.file.delete();
+		}
+	}
+
+	/**
+	 * Drops the least recently used objects until the cache fits, adding
+	 * their files to those to delete once the lock is released.  Must hold
+	 * the lock on entries.
+	 */
+	private void evict(List<File> unusedFiles) {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (totalSize > maxSize && iterator.hasNext()) {
+			Entry entry = iterator.next();
+			iterator.remove();
+			totalSize -= entry.size;
+			unusedFiles.add(entry.file);
+			hubicClient.getMetrics().recordCacheEviction();
+		}
+	}
+
+	/**
+	 * Deletes files no longer in the cache, outside the lock on entries so
+	 * that other downloads are not held up by the file system.
+	 */
+	private static void delete(List<File> files) {
+		for (File file : files) {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Loads the objects cached by a previous run, the least recently used
+	 * first, and removes anything left half written.
+	 */
+	private void load() {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+
+		List<File> unusedFiles = new ArrayList<>();
+		synchronized (entries) {
+			for (File file : files) {
+				String name = file.getName();
+				if (name.endsWith(".tmp")) {
+					unusedFiles.add(file);
+				}
+				Matcher matcher = CACHE_FILE_NAME.matcher(name);
+				if (!file.isFile() || !matcher.matches()) {
+					continue;
+				}
+				long size = file.length();
+				Entry previous = entries.put(matcher.group(1), new Entry(matcher.group(2), matcher.group(3), file, size));
+				totalSize += size;
+				if (previous != null) {
+					totalSize -= previous.size;
+					unusedFiles.add(previous.file);
+				}
+			}
+			evict(unusedFiles);
+		}
+		delete(unusedFiles);
+	}
+}
@@ -19,29 +19,61 @@ package org.syncany.plugins.hubic;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.syncany.api.transfer.RemoteFile;
 import org.syncany.api.transfer.RemoteFileFactory;
 import org.syncany.api.transfer.StorageException;
 import org.syncany.api.transfer.TransferManager;
 import org.syncany.api.transfer.features.PathAwareRemoteFileType;
+import org.syncany.plugins.hubic.adioss.Checksums;
+import org.syncany.plugins.hubic.adioss.ClientMetrics;
+import org.syncany.plugins.hubic.adioss.ConcurrencyLimiter;
+import org.syncany.plugins.hubic.adioss.ContainerStats;
+import org.syncany.plugins.hubic.adioss.HttpAPI;
+import org.syncany.plugins.hubic.adioss.HttpTransports;
 import org.syncany.plugins.hubic.adioss.HubicClient;
+import org.syncany.plugins.hubic.adioss.ObjectMetadata;
 import org.syncany.plugins.hubic.adioss.Response;
-
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
+import org.syncany.plugins.hubic.adioss.RetryPolicy;
 
 public class HubicTransferManager implements TransferManager {
 
+	private static final String DELETION_JOURNAL_FILE_NAME = "pending-deletes";
+	private static final String DOWNLOAD_CACHE_DIRECTORY_NAME = "downloads";
+
 	private final HubicClient hubicClient;
-	
+
+	private final TransferExecutor transferExecutor;
+
+	private final DirectoryLister directoryLister;
+
+	private final ListingCache listingCache;
+
+	private final boolean skipExistingMultichunks;
+
+	private final SegmentedUploader segmentedUploader;
+	private final RangedDownloader rangedDownloader;
+	private final DownloadCache downloadCache;
+	private final BulkDeleter bulkDeleter;
+	private final LargeObjectFinder largeObjectFinder;
+	private final ArchiveUploader archiveUploader;
+	private final DeletionQueue deletionQueue;
+	private final RepositoryInitializer repositoryInitializer;
+	private final MetricsReporter metricsReporter;
+
 	private String repoPath;
 
 	private final String multichunksPath;
@@ -50,9 +82,8 @@ public class HubicTransferManager implements TransferManager {
 	private final String transactionsPath;
 	private final String temporaryPath;
 
-	public HubicTransferManager(String token, String endpoint) {
-		hubicClient = new HubicClient(endpoint, token);
-		
+	public HubicTransferManager(HubicTransferSettings settings) {
+		// Set first, as the metrics classify the paths of the first requests by them
 		this.repoPath = "";
 		if (!repoPath.isEmpty() && !repoPath.endsWith("/")) repoPath = repoPath + "/"; //.substring(0, repoPath.length()-1);
 
@@ -61,77 +92,208 @@ public class HubicTransferManager implements TransferManager {
 		this.actionsPath = repoPath + "actions/";
 		this.transactionsPath = repoPath + "transactions/";
 		this.temporaryPath = repoPath + "temporary/";
+
+		// A system property, so it changes the connection pool of every
+		// HttpURLConnection in the JVM, not just ours.  It is therefore only
+		// set if the user asked for it, and then only takes effect if no
+		// connection has been kept alive yet.
+		if (settings.getConnectionPoolSize() > 0) {
+			HttpAPI.setMaxIdleConnections(settings.getConnectionPoolSize());
+		}
+
+		// Starts at the configured number of transfers, and may grow as far as
+		// the transfer and segment pools together can make use of
+		ConcurrencyLimiter concurrencyLimiter = new ConcurrencyLimiter(settings.getConcurrentTransfers(), 1,
+				settings.getConcurrentTransfers() * settings.getConcurrentSegments());
+		ClientMetrics metrics = new ClientMetrics(this::getPathAwareType);
+		hubicClient = new HubicClient(settings.getEndpoint(), settings.getToken(), RetryPolicy.DEFAULT, concurrencyLimiter,
+				HttpTransports.create(settings.getHttpTransport(), settings.isVirtualThreads()), metrics);
+		transferExecutor = new TransferExecutor(settings.getConcurrentTransfers(), settings.isVirtualThreads());
+		directoryLister = new DirectoryLister(hubicClient);
+		listingCache = new ListingCache(TimeUnit.SECONDS.toMillis(settings.getListingCacheSeconds()));
+		skipExistingMultichunks = settings.isSkipExistingMultichunks();
+		segmentedUploader = new SegmentedUploader(hubicClient, settings.getSegmentSizeMegabytes() * 1024L * 1024L, settings.getConcurrentSegments());
+		rangedDownloader = new RangedDownloader(hubicClient, settings.getSegmentSizeMegabytes() * 1024L * 1024L, settings.getConcurrentSegments());
+		downloadCache = new DownloadCache(hubicClient, rangedDownloader, new File(settings.getLocalDirectory(), DOWNLOAD_CACHE_DIRECTORY_NAME),
+				settings.getDownloadCacheMegabytes() * 1024L * 1024L);
+		bulkDeleter = new BulkDeleter(hubicClient);
+		largeObjectFinder = new LargeObjectFinder(hubicClient);
+		archiveUploader = new ArchiveUploader(hubicClient);
+		deletionQueue = new DeletionQueue(hubicClient, new File(settings.getLocalDirectory(), DELETION_JOURNAL_FILE_NAME));
+		repositoryInitializer = new RepositoryInitializer(hubicClient);
+		metricsReporter = new MetricsReporter(metrics, settings.getEndpoint(), settings.getMetricsLogSeconds());
 	}
 
 	@Override
 	public void connect() throws StorageException {
-		// Nothing to do here for HTTP protocol
+		// Nothing to connect for HTTP, only the metrics to publish
+		metricsReporter.start();
 	}
 
 	@Override
 	public void disconnect() throws StorageException {
-		// Nothing to do here for HTTP protocol
+		metricsReporter.stop();
 	}
 
 	@Override
 	public void init(boolean createIfRequired, RemoteFile syncanyRemoteFile) throws StorageException {
-		try {
-			if (!testRepoFileExists(syncanyRemoteFile) && createIfRequired) {
-				hubicClient.createDirectory(repoPath);
-			}
-
-			hubicClient.createDirectory(multichunksPath);
-			hubicClient.createDirectory(databasesPath);
-			hubicClient.createDirectory(actionsPath);
-			hubicClient.createDirectory(transactionsPath);
-			hubicClient.createDirectory(temporaryPath);
-		}
-		catch (IOException e) {
-			throw new StorageException("Cannot create directory " + multichunksPath + ", or " + databasesPath, e);
-		}
+		repositoryInitializer.init(repoPath, getRemoteFile(syncanyRemoteFile), createIfRequired,
+				Arrays.asList(multichunksPath, databasesPath, actionsPath, transactionsPath, temporaryPath));
 	}
 
 	@Override
 	public void download(RemoteFile remoteFile, File localFile) throws StorageException {
-		try {
-			String source = getRemoteFile(remoteFile);
-			Response response = hubicClient.download(source, localFile);
-			if (response.getCode() != 200) {
-				throw new StorageException("download failed");
-			}
-		} catch (IOException e) {
-			throw new StorageException("download failed", e);
+		// Multichunks and databases are never rewritten, so are worth keeping
+		PathAwareRemoteFileType type = remoteFile.getPathAwareType();
+		if (type == PathAwareRemoteFileType.Multichunk || type == PathAwareRemoteFileType.Database) {
+			downloadCache.download(getRemoteFile(remoteFile), localFile);
+		} else {
+			rangedDownloader.download(getRemoteFile(remoteFile), localFile);
 		}
 	}
 
 	@Override
 	public void upload(File localFile, RemoteFile remoteFile) throws StorageException {
 		try {
-			InputStream source = new FileInputStream(localFile);
 			String targetPath = getRemoteFile(remoteFile);
-			Response response = hubicClient.upload(source, targetPath);
-			if (response.getCode() != 201) {
-				throw new StorageException("upload failed");
+			deletionQueue.cancel(targetPath);
+			if (skipExistingMultichunks && remoteFile.getPathAwareType() == PathAwareRemoteFileType.Multichunk
+					&& isAlreadyUploaded(localFile, targetPath)) {
+				listingCache.added(getRemoteFilePath(remoteFile.getPathAwareType()), remoteFile.getName());
+				return;
 			}
+
+			if (segmentedUploader.shouldSegment(localFile)) {
+				segmentedUploader.upload(localFile, targetPath);
+			} else {
+				Response response = hubicClient.upload(localFile, targetPath);
+				if (response.getCode() != 201) {
+					throw new StorageException("upload failed");
+				}
+			}
+			listingCache.added(getRemoteFilePath(remoteFile.getPathAwareType()), remoteFile.getName());
 		} catch (IOException e) {
 			throw new StorageException("upload failed", e);
 		}
 	}
 
+	/**
+	 * Multichunk names are derived from their content, so a multichunk that is
+	 * already on the server is usually left over from an interrupted sync.  It
+	 * is only trusted if its size and MD5 match the local file.
+	 */
+	private boolean isAlreadyUploaded(File localFile, String targetPath) throws IOException {
+		Response response = hubicClient.head(targetPath);
+		if (response.getCode() != 200) {
+			return false;
+		}
+
+		ObjectMetadata metadata = ObjectMetadata.fromResponse(response);
+		return metadata.getSize() == localFile.length()
+				&& metadata.getEtag() != null
+				&& metadata.getEtag().equalsIgnoreCase(Checksums.md5Hex(localFile.toPath()));
+	}
+
+	/**
+	 * Uploads all the given files, with up to the configured number of
+	 * transfers in flight at once.  Small files are sent together as tar
+	 * archives, where the server supports extracting them.  Every file is
+	 * attempted even if others fail.
+	 *
+	 * @param files the local files to upload, mapped to their target remote files
+	 * @throws BatchTransferException if any of the uploads failed
+	 */
+	public void uploadAll(Map<File, ? extends RemoteFile> files) throws StorageException {
+		Map<RemoteFile, TransferExecutor.Transfer> transfers = new LinkedHashMap<>();
+		Map<String, File> smallFiles = new LinkedHashMap<>();
+		Map<String, RemoteFile> smallRemoteFiles = new LinkedHashMap<>();
+		for (Map.Entry<File, ? extends RemoteFile> file : files.entrySet()) {
+			RemoteFile remoteFile = file.getValue();
+			boolean mayExist = skipExistingMultichunks && remoteFile.getPathAwareType() == PathAwareRemoteFileType.Multichunk;
+			if (!mayExist && archiveUploader.shouldBatch(file.getKey())) {
+				deletionQueue.cancel(getRemoteFile(remoteFile));
+				smallFiles.put(getRemoteFile(remoteFile), file.getKey());
+				smallRemoteFiles.put(getRemoteFile(remoteFile), remoteFile);
+			} else {
+				transfers.put(remoteFile, () -> upload(file.getKey(), remoteFile));
+			}
+		}
+
+		Map<RemoteFile, StorageException> failures = new HashMap<>();
+		Map<String, StorageException> smallFileFailures = archiveUploader.uploadAll(smallFiles);
+		for (Map.Entry<String, RemoteFile> smallRemoteFile : smallRemoteFiles.entrySet()) {
+			RemoteFile remoteFile = smallRemoteFile.getValue();
+			StorageException failure = smallFileFailures.get(smallRemoteFile.getKey());
+			if (failure == null) {
+				listingCache.added(getRemoteFilePath(remoteFile.getPathAwareType()), remoteFile.getName());
+			} else {
+				failures.put(remoteFile, failure);
+			}
+		}
+		failures.putAll(transferExecutor.runAll(transfers));
+
+		Map<RemoteFile, StorageException> orderedFailures = new LinkedHashMap<>();
+		for (RemoteFile remoteFile : files.values()) {
+			if (failures.containsKey(remoteFile)) {
+				orderedFailures.put(remoteFile, failures.get(remoteFile));
+			}
+		}
+		if (!orderedFailures.isEmpty()) {
+			throw new BatchTransferException(orderedFailures);
+		}
+	}
+
+	/**
+	 * Downloads all the given remote files, with up to the configured number of
+	 * transfers in flight at once.  Every file is attempted even if others fail.
+	 *
+	 * @param files the remote files to download, mapped to their local target files
+	 * @throws BatchTransferException if any of the downloads failed
+	 */
+	public void downloadAll(Map<? extends RemoteFile, File> files) throws StorageException {
+		Map<RemoteFile, TransferExecutor.Transfer> transfers = new LinkedHashMap<>();
+		for (Map.Entry<? extends RemoteFile, File> file : files.entrySet()) {
+			transfers.put(file.getKey(), () -> download(file.getKey(), file.getValue()));
+		}
+		runAll(transfers);
+	}
+
+	private void runAll(Map<RemoteFile, TransferExecutor.Transfer> transfers) throws StorageException {
+		Map<RemoteFile, StorageException> failures = transferExecutor.runAll(transfers);
+		if (!failures.isEmpty()) {
+			throw new BatchTransferException(failures);
+		}
+	}
+
 	@Override
 	public void move(RemoteFile sourceFile, RemoteFile targetFile) throws StorageException {
 		String sourcePath = getRemoteFile(sourceFile);
 		String targetPath = getRemoteFile(targetFile);
 
 		try {
-			Response copyResponse = hubicClient.copy(sourcePath, targetPath);
+			deletionQueue.cancel(targetPath);
+
+			// A large object, whichever process uploaded it, is moved by copying
+			// its manifest, which refers to the same segments.  Swift copies a
+			// plain object as usual.
+			Response copyResponse = hubicClient.copyManifest(sourcePath, targetPath);
 			if (copyResponse.getCode() != 201) {
 				throw new StorageException("Unable to copy, code = " + copyResponse.getCode());
 			}
-
-			Response deleteResponse = hubicClient.delete(sourcePath);
-			if (deleteResponse.getCode() != 200 && deleteResponse.getCode() != 204) {
-				throw new StorageException("Unable to delete, code = " + deleteResponse.getCode());
+			listingCache.added(getRemoteFilePath(targetFile.getPathAwareType()), targetFile.getName());
+
+			// The source is deleted in the background, and treated as gone
+			// meanwhile.  Its segments now belong to the target, so it is
+			// deleted as a plain object even if it was a large one.
+			listingCache.removed(getRemoteFilePath(sourceFile.getPathAwareType()), sourceFile.getName());
+			try {
+				deletionQueue.enqueue(sourcePath);
+			} catch (StorageException e) {
+				// The delete could not be journalled, so it is made now
+				Response deleteResponse = hubicClient.delete(sourcePath);
+				if (deleteResponse.getCode() != 200 && deleteResponse.getCode() != 204) {
+					throw new StorageException("Unable to delete, code = " + deleteResponse.getCode());
+				}
 			}
 		} catch (IOException e) {
 			throw new StorageException("move failed", e);
@@ -143,7 +305,13 @@ public class HubicTransferManager implements TransferManager {
 		try {
 			String tempRemoteFilePath = getRemoteFile(remoteFile);
 
-			Response response = hubicClient.delete(tempRemoteFilePath);
+			// Deletes the segments too if it is a large object, whichever process
+			// uploaded it.  Swift deletes a plain object as usual.
+			Response response = hubicClient.deleteLargeObject(tempRemoteFilePath);
+			if (response.getCode() == 200 || response.getCode() == 204 || response.getCode() == 404) {
+				listingCache.removed(getRemoteFilePath(remoteFile.getPathAwareType()), remoteFile.getName());
+			}
+
 			if (response.getCode() == 200) {
 				return true;
 			} else if (response.getCode() == 204) {
@@ -162,28 +330,92 @@ public class HubicTransferManager implements TransferManager {
 		}
 	}
 
+	/**
+	 * Deletes all the given remote files, many to a request where the server
+	 * supports Swift bulk deletes.  Every file is attempted even if others
+	 * fail, and a file that did not exist counts as deleted.
+	 *
+	 * @param remoteFiles the remote files to delete
+	 * @throws BatchTransferException if any of the deletes failed
+	 */
+	public void deleteAll(Collection<? extends RemoteFile> remoteFiles) throws StorageException {
+		Map<String, RemoteFile> filesByPath = new LinkedHashMap<>();
+		for (RemoteFile remoteFile : remoteFiles) {
+			filesByPath.put(getRemoteFile(remoteFile), remoteFile);
+		}
+
+		// A bulk delete would leave the segments of a large object behind
+		Set<String> largeObjects = largeObjectFinder.find(filesByPath.keySet());
+		List<String> plainPaths = new ArrayList<>();
+		Map<String, CompletableFuture<Response>> largeObjectDeletes = new LinkedHashMap<>();
+		for (String path : filesByPath.keySet()) {
+			if (largeObjects.contains(path)) {
+				largeObjectDeletes.put(path, hubicClient.deleteLargeObjectAsync(path));
+			} else {
+				plainPaths.add(path);
+			}
+		}
+
+		Map<String, StorageException> failuresByPath = bulkDeleter.deleteAll(plainPaths);
+		for (Map.Entry<String, CompletableFuture<Response>> largeObjectDelete : largeObjectDeletes.entrySet()) {
+			try {
+				int code = HubicClient.await(largeObjectDelete.getValue()).getCode();
+				if (code != 200 && code != 204 && code != 404) {
+					failuresByPath.put(largeObjectDelete.getKey(), new StorageException("Unable to delete, code = " + code));
+				}
+			} catch (IOException e) {
+				failuresByPath.put(largeObjectDelete.getKey(), new StorageException("delete failed", e));
+			}
+		}
+
+		Map<RemoteFile, StorageException> failures = new LinkedHashMap<>();
+		for (Map.Entry<String, RemoteFile> file : filesByPath.entrySet()) {
+			StorageException failure = failuresByPath.get(file.getKey());
+			if (failure == null) {
+				listingCache.removed(getRemoteFilePath(file.getValue().getPathAwareType()), file.getValue().getName());
+			} else {
+				failures.put(file.getValue(), failure);
+			}
+		}
+		if (!failures.isEmpty()) {
+			throw new BatchTransferException(failures);
+		}
+	}
+
 	@Override
 	public <T extends RemoteFile> Collection<T> list(PathAwareRemoteFileType remoteFileType,
 			RemoteFileFactory<T> factory) throws StorageException {
 		try {
-			// List folder
 			String remoteFilePath = getRemoteFilePath(remoteFileType);
-			JsonArray fileArray = listDirectory(remoteFilePath);
 
 			Set<T> remoteFiles = new HashSet<T>();
 
-			for (JsonElement fileElement : fileArray) {
-				JsonObject fileObject = (JsonObject)fileElement;
-				String fileName = fileObject.get("name").getAsString();
-				String contentType = fileObject.get("content_type").getAsString();
-				if (contentType.equals("application/octet-stream")) {
+			boolean cached = isListingCached(remoteFileType);
+			Set<String> cachedNames = cached ? listingCache.get(remoteFilePath, this::getContainerStats) : null;
+			if (cachedNames != null) {
+				for (String simpleFileName : cachedNames) {
+					remoteFiles.add(factory.createRemoteFile(simpleFileName));
+				}
+				return remoteFiles;
+			}
+
+			// List folder
+			Set<String> simpleFileNames = new HashSet<String>();
+			long cacheGeneration = listingCache.getGeneration();
+			ContainerStats containerStats = directoryLister.list(remoteFilePath, entry -> {
+				if (entry.getContentType().equals("application/octet-stream") && !deletionQueue.isPending(entry.getName())) {
+					String fileName = entry.getName();
 					if (!fileName.startsWith(remoteFilePath)) {
 						throw new StorageException("unexpected file directory");
 					}
 					String simpleFileName = fileName.substring(remoteFilePath.length());
 					T remoteFile = factory.createRemoteFile(simpleFileName);
 					remoteFiles.add(remoteFile);
+					simpleFileNames.add(simpleFileName);
 				}
+			});
+			if (cached) {
+				listingCache.put(remoteFilePath, simpleFileNames, containerStats, cacheGeneration);
 			}
 
 			return remoteFiles;
@@ -229,41 +461,74 @@ public class HubicTransferManager implements TransferManager {
 	@Override
 	public boolean testRepoFileExists(RemoteFile repoFile) throws StorageException {
 		try {
-			String repoFilePath = getRemoteFile(repoFile);
-			
-			String repoFileParentPath = (repoFilePath.indexOf("/") != -1) ? repoFilePath.substring(0, repoFilePath.lastIndexOf("/")) : "";
-			JsonArray fileArray = listDirectory(repoFileParentPath);
-			for (JsonElement fileElement : fileArray) {
-				JsonObject fileObject = (JsonObject)fileElement;
-				String fileName = fileObject.get("name").getAsString();
-				String contentType = fileObject.get("content_type").getAsString();
-				if (fileName.equals(repoFile.getName())) {
-					return true;
+			if (isListingCached(repoFile.getPathAwareType())) {
+				Set<String> cachedNames = listingCache.get(getRemoteFilePath(repoFile.getPathAwareType()), this::getContainerStats);
+				if (cachedNames != null) {
+					return cachedNames.contains(repoFile.getName());
 				}
 			}
 
-			return false;				
+			if (deletionQueue.isPending(getRemoteFile(repoFile))) {
+				return false;
+			}
+			Response response = hubicClient.head(getRemoteFile(repoFile));
+			return response.getCode() == 200;
 		}
 		catch (Exception e) {
 			return false;
 		}
 	}
 
-	private String getRemoteFile(RemoteFile remoteFile) {
-		return getRemoteFilePath(remoteFile.getPathAwareType()) + remoteFile.getName();
+	/**
+	 * Only the directories of multichunks and databases are listed from the
+	 * cache.  Action and transaction files are how clients coordinate, as
+	 * with the cleanup lock, so another client's must be seen at once.
+	 */
+	private static boolean isListingCached(PathAwareRemoteFileType type) {
+		return type == PathAwareRemoteFileType.Multichunk || type == PathAwareRemoteFileType.Database
+				|| type == PathAwareRemoteFileType.Cleanup;
 	}
 
-	private JsonArray listDirectory(String path) throws StorageException {
+	private ContainerStats getContainerStats() throws StorageException {
 		try {
-			Response response = hubicClient.listDirectory(path);
-			if (response.getCode() == 200) {
-				return (JsonArray)response.getContent();
-			} else {
-				throw new StorageException("Failed to get directory listing for " + path + ", error code = " + response.getCode());
+			Response response = hubicClient.headContainer();
+			if (response.getCode() != 200 && response.getCode() != 204) {
+				return null;
 			}
+			return ContainerStats.fromResponse(response);
 		} catch (IOException e) {
-			throw new StorageException("list directory failed", e);
+			throw new StorageException("Unable to get container stats", e);
+		}
+	}
+
+	private String getRemoteFile(RemoteFile remoteFile) {
+		return getRemoteFilePath(remoteFile.getPathAwareType()) + remoteFile.getName();
+	}
+
+	/**
+	 * The reverse of {@link #getRemoteFilePath}, for counting requests by the
+	 * type of file they are for.  Cleanup files share the databases
+	 * directory, so are counted as databases.
+	 *
+	 * @return the type of remote file at the path, or null if none
+	 */
+	private PathAwareRemoteFileType getPathAwareType(String path) {
+		if (path.startsWith(multichunksPath)) {
+			return PathAwareRemoteFileType.Multichunk;
+		} else if (path.startsWith(databasesPath)) {
+			return PathAwareRemoteFileType.Database;
+		} else if (path.startsWith(actionsPath)) {
+			return PathAwareRemoteFileType.Action;
+		} else if (path.startsWith(transactionsPath)) {
+			return PathAwareRemoteFileType.Transaction;
+		} else if (path.startsWith(temporaryPath)) {
+			return PathAwareRemoteFileType.Temp;
+		} else if (path.equals(repoPath + "syncany")) {
+			return PathAwareRemoteFileType.Syncany;
+		} else if (path.equals(repoPath + "master")) {
+			return PathAwareRemoteFileType.Master;
 		}
+		return null;
 	}
 
 	@Override
@@ -17,10 +17,12 @@
  */
 package org.syncany.plugins.hubic;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.UUID;
 
 import org.syncany.api.transfer.LocalDiskCache;
@@ -28,7 +30,10 @@ import org.syncany.api.transfer.PropertyVisitor;
 import org.syncany.api.transfer.StorageException;
 import org.syncany.api.transfer.TransferManager;
 import org.syncany.api.transfer.TransferSettings;
+import org.syncany.plugins.hubic.adioss.Checksums;
 import org.syncany.plugins.hubic.adioss.HttpAPI;
+import org.syncany.plugins.hubic.adioss.HttpRequest;
+import org.syncany.plugins.hubic.adioss.HttpTransports;
 import org.syncany.plugins.hubic.adioss.Response;
 
 import com.google.gson.JsonObject;
@@ -48,10 +53,84 @@ public class HubicTransferSettings implements TransferSettings {
 	 */
 	private static final String redirectUrl = "https://www.syncany.org/oauth/";
 
+	/**
+	 * the number of transfers that the batch operations keep in flight at once
+	 */
+	private static final int DEFAULT_CONCURRENT_TRANSFERS = 8;
+
+	/**
+	 * how long, in seconds, a listing of the multichunks or databases is
+	 * reused before it is revalidated against the server, with 0 disabling
+	 * the listing cache (action and transaction files are never cached);
+	 * revalidation only compares the container's object count and bytes used,
+	 * which a move or same-size replacement by another client leaves unchanged,
+	 * so such a change can go unseen for a few times this long before the
+	 * directory is listed again
+	 */
+	private static final int DEFAULT_LISTING_CACHE_SECONDS = 30;
+
+	/**
+	 * the most space, in megabytes, taken by local copies of downloaded
+	 * multichunks and databases, with 0 disabling the download cache
+	 */
+	private static final int DEFAULT_DOWNLOAD_CACHE_MEGABYTES = 256;
+
+	/**
+	 * files larger than this are uploaded in segments of this size, as a
+	 * Swift static large object, with 0 disabling segmented uploads
+	 */
+	private static final int DEFAULT_SEGMENT_SIZE_MEGABYTES = 64;
+
+	/**
+	 * the number of segments of one large file that are uploaded at once
+	 */
+	private static final int DEFAULT_CONCURRENT_SEGMENTS = 4;
+
+	/**
+	 * the number of idle connections to hubiC kept alive for reuse, with 0
+	 * leaving the JVM's own setting; it applies to the whole JVM and only if
+	 * set before the first request
+	 */
+	private static final int DEFAULT_CONNECTION_POOL_SIZE = 0;
+
+	/**
+	 * the HTTP client to use, either HttpURLConnection or, on Java 11 and
+	 * later, the java.net.http client with HTTP/2
+	 */
+	private static final String DEFAULT_HTTP_TRANSPORT = HttpTransports.URL_CONNECTION;
+
+	/**
+	 * the directory holding the plugin's local state, such as the journal of
+	 * pending deletes, with a subdirectory for each hubiC account
+	 */
+	private static final String DEFAULT_LOCAL_DIRECTORY = System.getProperty("user.home") + File.separator + ".syncany-hubic";
+
 	private String token;
 
 	private String endpoint;
 
+	private int concurrentTransfers = DEFAULT_CONCURRENT_TRANSFERS;
+
+	private int listingCacheSeconds = DEFAULT_LISTING_CACHE_SECONDS;
+
+	private int downloadCacheMegabytes = DEFAULT_DOWNLOAD_CACHE_MEGABYTES;
+
+	private int metricsLogSeconds = 0;
+
+	private boolean skipExistingMultichunks = false;
+
+	private int segmentSizeMegabytes = DEFAULT_SEGMENT_SIZE_MEGABYTES;
+
+	private int concurrentSegments = DEFAULT_CONCURRENT_SEGMENTS;
+
+	private int connectionPoolSize = DEFAULT_CONNECTION_POOL_SIZE;
+
+	private String httpTransport = DEFAULT_HTTP_TRANSPORT;
+
+	private boolean virtualThreads = false;
+
+	private String localDirectory = DEFAULT_LOCAL_DIRECTORY;
+
 	private String getAccessToken() {
 		return "this is transient";
 	}
@@ -67,10 +146,9 @@ public class HubicTransferSettings implements TransferSettings {
 			HttpAPI httpAPI = new HttpAPI();
 
 			String authorization = "Bearer " + accessToken;
-			Response r = httpAPI.query("https://api.hubic.com/1.0/account/credentials")
+			Response r = httpAPI.execute(HttpRequest.get("https://api.hubic.com/1.0/account/credentials")
 					.header("Authorization", authorization)
-					.json()
-					.get();
+					.json());
 
 			JsonObject postContent = (JsonObject) r.getContent();
 
@@ -90,7 +168,7 @@ public class HubicTransferSettings implements TransferSettings {
 		}
 	}
 
-	private String getToken() {
+	String getToken() {
 		return token;
 	}
 
@@ -98,7 +176,7 @@ public class HubicTransferSettings implements TransferSettings {
 		this.token = token;
 	}
 
-	private String getEndpoint() {
+	String getEndpoint() {
 		return endpoint;
 	}
 
@@ -106,6 +184,93 @@ public class HubicTransferSettings implements TransferSettings {
 		this.endpoint = endpoint;
 	}
 
+	int getConcurrentTransfers() {
+		return concurrentTransfers;
+	}
+
+	int getListingCacheSeconds() {
+		return listingCacheSeconds;
+	}
+
+	int getDownloadCacheMegabytes() {
+		return downloadCacheMegabytes;
+	}
+
+	/**
+	 * @return the interval between reports of the request metrics in the log,
+	 *         with 0 for none, the metrics being available through JMX anyway
+	 */
+	int getMetricsLogSeconds() {
+		return metricsLogSeconds;
+	}
+
+	boolean isSkipExistingMultichunks() {
+		return skipExistingMultichunks;
+	}
+
+	int getSegmentSizeMegabytes() {
+		return segmentSizeMegabytes;
+	}
+
+	int getConcurrentSegments() {
+		return concurrentSegments;
+	}
+
+	int getConnectionPoolSize() {
+		return connectionPoolSize;
+	}
+
+	String getHttpTransport() {
+		return httpTransport;
+	}
+
+	boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * @return the directory for the local state of this account, named by a
+	 *         hash of its endpoint
+	 */
+	File getLocalDirectory() {
+		MessageDigest md5 = Checksums.newMd5();
+		return new File(localDirectory, Checksums.toHex(md5.digest(endpoint.getBytes(StandardCharsets.UTF_8))));
+	}
+
+	private static int parsePositiveInt(String name, String value) {
+		return parseInt(name, value, 1);
+	}
+
+	private static String parseHttpTransport(String value) {
+		String name = value.trim().toLowerCase();
+		if (!HttpTransports.isValidName(name)) {
+			throw new IllegalArgumentException("httpTransport must be " + HttpTransports.URL_CONNECTION + " or "
+					+ HttpTransports.HTTP_CLIENT + ", but was '" + value + "'");
+		}
+		return name;
+	}
+
+	private static boolean parseBoolean(String name, String value) {
+		if (value.trim().equalsIgnoreCase("true")) {
+			return true;
+		} else if (value.trim().equalsIgnoreCase("false")) {
+			return false;
+		}
+		throw new IllegalArgumentException(name + " must be true or false, but was '" + value + "'");
+	}
+
+	private static int parseInt(String name, String value, int minimum) {
+		try {
+			int result = Integer.parseInt(value.trim());
+			if (result < minimum) {
+				throw new IllegalArgumentException(name + " must be at least " + minimum + ", but was " + result);
+			}
+			return result;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(name + " must be a number, but was '" + value + "'", e);
+		}
+	}
+
 	@Override
 	public void visitProperties(PropertyVisitor visitor) {
 		String accessTokenMessage = buildAccessTokenMessage();
@@ -113,6 +278,28 @@ public class HubicTransferSettings implements TransferSettings {
 		visitor.stringProperty("accessToken", accessTokenMessage, true, true, true, true, true, this::getAccessToken, this::setAccessToken);
 		visitor.stringProperty("token", "Token", true, true, true, true, false, this::getToken, this::setToken);
 		visitor.stringProperty("endpoint", "Endpoint", true, true, true, true, false, this::getEndpoint, this::setEndpoint);
+		visitor.stringProperty("concurrentTransfers", "Number of parallel transfers", true, true, true, true, false,
+				() -> Integer.toString(concurrentTransfers), value -> concurrentTransfers = parsePositiveInt("concurrentTransfers", value));
+		visitor.stringProperty("listingCacheSeconds", "Seconds to reuse a directory listing (0 to disable)", true, true, true, true, false,
+				() -> Integer.toString(listingCacheSeconds), value -> listingCacheSeconds = parseInt("listingCacheSeconds", value, 0));
+		visitor.stringProperty("downloadCacheMegabytes", "Megabytes of downloads to keep on local disk (0 to disable)", true, true, true, true, false,
+				() -> Integer.toString(downloadCacheMegabytes), value -> downloadCacheMegabytes = parseInt("downloadCacheMegabytes", value, 0));
+		visitor.stringProperty("metricsLogSeconds", "Seconds between reports of request metrics in the log (0 to disable)", true, true, true, true, false,
+				() -> Integer.toString(metricsLogSeconds), value -> metricsLogSeconds = parseInt("metricsLogSeconds", value, 0));
+		visitor.stringProperty("skipExistingMultichunks", "Skip uploading multichunks already on hubiC (true/false)", true, true, true, true, false,
+				() -> Boolean.toString(skipExistingMultichunks), value -> skipExistingMultichunks = parseBoolean("skipExistingMultichunks", value));
+		visitor.stringProperty("segmentSizeMegabytes", "Segment size in MB for transferring large files (0 to disable)", true, true, true, true, false,
+				() -> Integer.toString(segmentSizeMegabytes), value -> segmentSizeMegabytes = parseInt("segmentSizeMegabytes", value, 0));
+		visitor.stringProperty("concurrentSegments", "Number of segments of a large file transferred at once", true, true, true, true, false,
+				() -> Integer.toString(concurrentSegments), value -> concurrentSegments = parsePositiveInt("concurrentSegments", value));
+		visitor.stringProperty("connectionPoolSize", "Number of idle connections kept alive for reuse (0 for the JVM's default)", true, true, true, true, false,
+				() -> Integer.toString(connectionPoolSize), value -> connectionPoolSize = parseInt("connectionPoolSize", value, 0));
+		visitor.stringProperty("httpTransport", "HTTP client (urlconnection, or httpclient for HTTP/2 on Java 11+)", true, true, true, true, false,
+				() -> httpTransport, value -> httpTransport = parseHttpTransport(value));
+		visitor.stringProperty("virtualThreads", "Run each transfer on a virtual thread on Java 21+ (true/false)", true, true, true, true, false,
+				() -> Boolean.toString(virtualThreads), value -> virtualThreads = parseBoolean("virtualThreads", value));
+		visitor.stringProperty("localDirectory", "Directory for the plugin's local state", true, true, true, true, false,
+				() -> localDirectory, value -> localDirectory = value);
 	}
 
 	private String buildAccessTokenMessage() {
@@ -152,7 +339,9 @@ public class HubicTransferSettings implements TransferSettings {
 			// from the access token.
 			throw new StorageException("Cannot create Hubic transfer manager because the access token was not successfully set.");
 		}
-		return new HubicTransferManager(token, endpoint);
+		// The plugin keeps its own download cache under the local directory,
+		// which revalidates each object by its ETag
+		return new HubicTransferManager(this);
 	}
 
 	@Override
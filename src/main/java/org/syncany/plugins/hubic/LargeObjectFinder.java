@@ -0,0 +1,85 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.plugins.hubic.adioss.HubicClient;
+import org.syncany.plugins.hubic.adioss.Response;
+
+/**
+ * Finds which of a batch of objects are static large objects, which a bulk
+ * delete would leave their segments behind for, however and by whichever
+ * process they were uploaded.
+ * <p>
+ * A large object's segments stay where they were uploaded when the object is
+ * moved, as a move only copies the manifest, and Syncany uploads everything
+ * to the temporary directory first.  So an object is only known to be large
+ * by what the server says of it: a HEAD of each object, all in flight at
+ * once, tells whether it is a manifest.
+ */
+class LargeObjectFinder {
+	private static final Logger logger = Logger.getLogger(LargeObjectFinder.class.getSimpleName());
+
+	private final HubicClient hubicClient;
+
+	LargeObjectFinder(HubicClient hubicClient) {
+		this.hubicClient = hubicClient;
+	}
+
+	/**
+	 * @return the paths that may be large objects.  If an object cannot be
+	 *         checked, its path is returned, as deleting a plain object as a
+	 *         large one is only slower.
+	 */
+	Set<String> find(Collection<String> paths) {
+		Map<String, CompletableFuture<Response>> heads = new LinkedHashMap<>();
+		for (String path : paths) {
+			heads.put(path, hubicClient.headAsync(path));
+		}
+
+		Set<String> largeObjects = new HashSet<>();
+		for (Map.Entry<String, CompletableFuture<Response>> head : heads.entrySet()) {
+			try {
+				Response response = head.getValue().join();
+				if (response.getCode() == 404) {
+					// Gone already, which the bulk delete reports as such
+					continue;
+				} else if (response.getCode() >= 300 || isLargeObject(response)) {
+					largeObjects.add(head.getKey());
+				}
+			} catch (RuntimeException e) {
+				logger.log(Level.FINE, "Unable to check whether " + head.getKey() + " is a large object", e);
+				largeObjects.add(head.getKey());
+			}
+		}
+		return largeObjects;
+	}
+
+	private static boolean isLargeObject(Response response) {
+		String staticLargeObject = response.getHeader("X-Static-Large-Object");
+		return staticLargeObject != null && Boolean.parseBoolean(staticLargeObject.trim());
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.syncany.api.transfer.StorageException;
+import org.syncany.plugins.hubic.adioss.ContainerStats;
+
+/**
+ * Caches the file names in each repository directory, as last listed by
+ * this transfer manager.  Uploads, moves and deletes made through the same
+ * transfer manager update the cached names in place, so they stay correct
+ * without going back to the server.
+ * <p>
+ * A cached listing is trusted for the configured time-to-live.  After that,
+ * it is kept for another time-to-live if the container's object count and
+ * bytes used have not changed since the listing was fetched, otherwise it is
+ * dropped and the directory is listed again.  Changes made through this
+ * transfer manager also change the container stats, so after any write the
+ * stats check can no longer vouch for a listing and only the time-to-live applies.
+ * <p>
+ * The stats check misses changes by other clients that keep the object count
+ * and bytes used, such as a move, a rename or a replacement by a file of the
+ * same size.  So it extends a listing at most {@link #MAX_STATS_REVALIDATIONS}
+ * times, after which the directory is listed again whatever the stats say.
+ */
+class ListingCache {
+	interface ContainerStatsSource {
+		ContainerStats get() throws StorageException;
+	}
+
+	/**
+	 * How many times in a row unchanged container stats may extend a listing,
+	 * bounding how long a change that the stats miss goes unseen.
+	 */
+	static final int MAX_STATS_REVALIDATIONS = 3;
+
+	private static class CachedListing {
+		final Set<String> names;
+		volatile long expiresAt;
+		volatile ContainerStats containerStats;
+		volatile int statsRevalidations;
+
+		CachedListing(Set<String> names, long expiresAt, ContainerStats containerStats) {
+			this.names = names;
+			this.expiresAt = expiresAt;
+			this.containerStats = containerStats;
+		}
+	}
+
+	private final long timeToLiveMillis;
+
+	/**
+	 * Keyed by directory path, because several file types share a directory.
+	 */
+	private final Map<String, CachedListing> listings = new ConcurrentHashMap<>();
+
+	/**
+	 * Incremented by every change, so that a listing that was fetched while a
+	 * change was being made is not cached without that change.
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	/**
+	 * @param timeToLiveMillis how long a listing is trusted without any check,
+	 *        or 0 to disable caching
+	 */
+	ListingCache(long timeToLiveMillis) {
+		this.timeToLiveMillis = timeToLiveMillis;
+	}
+
+	boolean isEnabled() {
+		return timeToLiveMillis > 0;
+	}
+
+	/**
+	 * @return a copy of the cached names in the given directory, or null if
+	 *         the directory must be listed from the server
+	 */
+	Set<String> get(String path, ContainerStatsSource containerStatsSource) throws StorageException {
+		if (!isEnabled()) {
+			return null;
+		}
+
+		CachedListing listing = listings.get(path);
+		if (listing == null) {
+			return null;
+		}
+
+		if (System.currentTimeMillis() >= listing.expiresAt) {
+			ContainerStats cachedStats = listing.containerStats;
+			if (cachedStats != null && listing.statsRevalidations < MAX_STATS_REVALIDATIONS && cachedStats.equals(containerStatsSource.get())) {
+				listing.statsRevalidations++;
+				listing.expiresAt = System.currentTimeMillis() + timeToLiveMillis;
+			} else {
+				listings.remove(path, listing);
+				return null;
+			}
+		}
+
+		return new HashSet<>(listing.names);
+	}
+
+	/**
+	 * @return the current generation, to be passed to {@link #put} with a
+	 *         listing fetched after this call
+	 */
+	long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * Caches a listing fetched from the server, unless a change was made
+	 * through this transfer manager while it was being fetched.
+	 *
+	 * @param containerStats the container stats when the listing was fetched, or null if not known
+	 * @param generationBeforeListing the result of {@link #getGeneration()} before the listing was started
+	 */
+	synchronized void put(String path, Set<String> names, ContainerStats containerStats, long generationBeforeListing) {
+		if (isEnabled() && generation.get() == generationBeforeListing) {
+			Set<String> cachedNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			cachedNames.addAll(names);
+			listings.put(path, new CachedListing(cachedNames, System.currentTimeMillis() + timeToLiveMillis, containerStats));
+		}
+	}
+
+	/**
+	 * Records that a file was written to the given directory by this transfer manager.
+	 */
+	synchronized void added(String path, String name) {
+		generation.incrementAndGet();
+		clearContainerStats();
+		CachedListing listing = listings.get(path);
+		if (listing != null) {
+			listing.names.add(name);
+		}
+	}
+
+	/**
+	 * Records that a file was removed from the given directory by this transfer manager.
+	 */
+	synchronized void removed(String path, String name) {
+		generation.incrementAndGet();
+		clearContainerStats();
+		CachedListing listing = listings.get(path);
+		if (listing != null) {
+			listing.names.remove(name);
+		}
+	}
+
+	synchronized void invalidate(String path) {
+		generation.incrementAndGet();
+		listings.remove(path);
+	}
+
+	private void clearContainerStats() {
+		for (CachedListing listing : listings.values()) {
+			listing.containerStats = null;
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.syncany.plugins.hubic.adioss.ClientMetrics;
+
+/**
+ * Publishes the {@link ClientMetrics} of a transfer manager's client as an
+ * MBean, for JConsole and other JMX clients, and optionally logs a report of
+ * them at a fixed interval.  Neither is needed for transfers, so failing to
+ * register the MBean is only logged.
+ */
+class MetricsReporter {
+	private static final Logger logger = Logger.getLogger(MetricsReporter.class.getSimpleName());
+
+	private static final String DOMAIN = "org.syncany.plugins.hubic";
+
+	/**
+	 * Tells apart the MBeans of transfer managers for the same endpoint.
+	 */
+	private static final AtomicInteger nextId = new AtomicInteger();
+
+	private static final ScheduledExecutorService LOG_SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "hubic-metrics-log");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final ClientMetrics metrics;
+	private final String endpoint;
+	private final long logIntervalSeconds;
+
+	private ObjectName objectName;
+	private ScheduledFuture<?> logTask;
+
+	/**
+	 * @param logIntervalSeconds the interval between reports in the log, with
+	 *        0 for none
+	 */
+	MetricsReporter(ClientMetrics metrics, String endpoint, long logIntervalSeconds) {
+		this.metrics = metrics;
+		this.endpoint = endpoint;
+		this.logIntervalSeconds = logIntervalSeconds;
+	}
+
+	synchronized void start() {
+		if (objectName == null) {
+			try {
+				ObjectName name = new ObjectName(DOMAIN + ":type=ClientMetrics,endpoint=" + ObjectName.quote(String.valueOf(endpoint))
+						+ ",id=" + nextId.incrementAndGet());
+				ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+				objectName = name;
+			} catch (JMException | RuntimeException e) {
+				logger.log(Level.WARNING, "Unable to register the hubiC client metrics with JMX", e);
+			}
+		}
+		if (logTask == null && logIntervalSeconds > 0) {
+			logTask = LOG_SCHEDULER.scheduleAtFixedRate(this::log, logIntervalSeconds, logIntervalSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	synchronized void stop() {
+		if (logTask != null) {
+			logTask.cancel(false);
+			logTask = null;
+			log();
+		}
+		if (objectName != null) {
+			MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			try {
+				mBeanServer.unregisterMBean(objectName);
+			} catch (JMException e) {
+				logger.log(Level.FINE, "Unable to unregister " + objectName, e);
+			}
+			objectName = null;
+		}
+	}
+
+	/**
+	 * @return the name the MBean is registered under, or null if it is not
+	 */
+	synchronized ObjectName getObjectName() {
+		return objectName;
+	}
+
+	private void log() {
+		if (metrics.getRequestCount() > 0 || metrics.getInFlightCount() > 0) {
+			logger.log(Level.INFO, "hubiC requests:" + System.lineSeparator() + metrics.getReport());
+		}
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.syncany.api.transfer.StorageException;
+import org.syncany.plugins.hubic.adioss.HubicClient;
+import org.syncany.plugins.hubic.adioss.ObjectMetadata;
+import org.syncany.plugins.hubic.adioss.Response;
+
+/**
+ * Downloads objects as byte ranges written straight into the local file at
+ * their offsets.  The first range also gives the size and ETag of the object,
+ * so an object no larger than one range takes a single request.  The file is
+ * then sized to the object and the remaining ranges are fetched in parallel,
+ * each pinned to the same ETag, so that ranges of different versions of an
+ * object are never mixed.
+ * <p>
+ * A range whose connection drops is resumed from the last byte received,
+ * rather than started over.  A range fails only after several attempts in a
+ * row that made no progress.
+ */
+class RangedDownloader {
+	private static final int MAX_ATTEMPTS_WITHOUT_PROGRESS = 3;
+	private static final long IDLE_TIMEOUT_SECONDS = 30;
+
+	/**
+	 * The version of the object being downloaded, as learned from the first response.
+	 */
+	private static class ObjectVersion {
+		volatile String etag;
+		volatile long size = Long.MAX_VALUE;
+	}
+
+	private final HubicClient hubicClient;
+	private final long rangeSize;
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * @param rangeSize the size of each range, with 0 downloading every object as a single range
+	 * @param concurrentRanges the number of ranges of one object downloaded at once
+	 */
+	RangedDownloader(HubicClient hubicClient, long rangeSize, int concurrentRanges) {
+		this.hubicClient = hubicClient;
+		this.rangeSize = rangeSize > 0 ? rangeSize : Long.MAX_VALUE;
+
+		AtomicInteger threadNumber = new AtomicInteger();
+		executor = new ThreadPoolExecutor(concurrentRanges, concurrentRanges, IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), runnable -> {
+					Thread thread = new Thread(runnable, "hubic-range-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @return the ETag of the object downloaded, or null if the server gave none
+	 */
+	String download(String source, File localFile) throws StorageException {
+		ObjectVersion version = new ObjectVersion();
+		// A server that ignores the range sends the whole object at once
+		long received = downloadRange(source, localFile, 0, rangeSize - 1, version);
+
+		// Drops anything left over from a previous, longer file and reserves
+		// the space for the remaining ranges
+		try (RandomAccessFile file = new RandomAccessFile(localFile, "rw")) {
+			file.setLength(version.size);
+		} catch (IOException e) {
+			throw new StorageException("Unable to size " + localFile + " for download of " + source, e);
+		}
+
+		List<Future<Void>> ranges = new ArrayList<>();
+		for (long first = received; first < version.size; first += rangeSize) {
+			long rangeFirst = first;
+			long rangeLast = Math.min(version.size, first + rangeSize) - 1;
+			ranges.add(executor.submit(() -> {
+				downloadRange(source, localFile, rangeFirst, rangeLast, version);
+				return null;
+			}));
+		}
+
+		for (Future<Void> range : ranges) {
+			try {
+				range.get();
+			} catch (ExecutionException e) {
+				for (Future<Void> remaining : ranges) {
+					remaining.cancel(true);
+				}
+				throw e.getCause() instanceof StorageException ? (StorageException) e.getCause()
+						: new StorageException("Download of " + source + " failed", e.getCause());
+			} catch (InterruptedException e) {
+				for (Future<Void> remaining : ranges) {
+					remaining.cancel(true);
+				}
+				Thread.currentThread().interrupt();
+				throw new StorageException("Interrupted while downloading " + source, e);
+			}
+		}
+		return version.etag;
+	}
+
+	/**
+	 * Downloads the given bytes of the object, resuming after a dropped connection.
+	 *
+	 * @param last the last byte wanted, inclusive, which may be past the end of the object
+	 * @param version the size and ETag of the object, which are filled in from
+	 *        the response if not yet known
+	 * @return the position after the last byte received, which is past the
+	 *         range if the server sent more than was asked for
+	 */
+	private long downloadRange(String source, File localFile, long first, long last, ObjectVersion version) throws StorageException {
+		long position = first;
+		int attemptsWithoutProgress = 0;
+
+		while (position <= last && position < version.size) {
+			if (Thread.currentThread().isInterrupted()) {
+				throw new StorageException("Interrupted while downloading " + source);
+			}
+
+			StorageException failure;
+			long written = 0;
+			try {
+				Response response = hubicClient.downloadRange(source, localFile, position, last, version.etag);
+				switch (response.getCode()) {
+				case 206:
+					if (version.etag == null) {
+						version.etag = ObjectMetadata.fromResponse(response).getEtag();
+						version.size = parseTotalSize(response.getHeader("Content-Range"));
+					}
+					written = (Long) response.getContent();
+					failure = new StorageException("Connection dropped while downloading " + source + " at byte " + (position + written));
+					break;
+				case 200:
+					// The whole object was sent, which is only of use if it was
+					// written from the start of the file
+					if (position != 0) {
+						throw new StorageException("Download of " + source + " ignored the requested range");
+					}
+					version.etag = ObjectMetadata.fromResponse(response).getEtag();
+					written = (Long) response.getContent();
+					// Without a Content-Length, such as for a chunked response,
+					// the object is taken to be as long as what was received
+					long size = ObjectMetadata.fromResponse(response).getSize();
+					version.size = size >= 0 ? size : written;
+					failure = new StorageException("Connection dropped while downloading " + source + " at byte " + written);
+					break;
+				case 416:
+					// Even the first byte is past the end, so the object is empty
+					if (position != 0) {
+						throw new StorageException("Object " + source + " is shorter than expected");
+					}
+					version.size = 0;
+					return 0;
+				default:
+					if (response.getCode() < 500) {
+						// Includes 412 if the object was replaced during the download
+						throw new StorageException("Download of " + source + " failed, code = " + response.getCode());
+					}
+					failure = new StorageException("Download of " + source + " failed, code = " + response.getCode());
+				}
+			} catch (IOException e) {
+				failure = new StorageException("Download of " + source + " failed", e);
+			}
+
+			position += written;
+			if (written > 0) {
+				attemptsWithoutProgress = 0;
+			} else if (++attemptsWithoutProgress >= MAX_ATTEMPTS_WITHOUT_PROGRESS) {
+				throw failure;
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * @param contentRange a header of the form <code>bytes 0-1023/4096</code>
+	 */
+	private static long parseTotalSize(String contentRange) throws StorageException {
+		try {
+			return Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1).trim());
+		} catch (RuntimeException e) {
+			throw new StorageException("Invalid Content-Range: " + contentRange, e);
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.syncany.api.transfer.StorageException;
+import org.syncany.plugins.hubic.adioss.HubicClient;
+import org.syncany.plugins.hubic.adioss.Response;
+
+/**
+ * Sets up the directories of a repository, creating only those that are
+ * missing.  All the directories are looked up at once with HEAD requests,
+ * and the missing ones are then created at once, so that opening a
+ * repository that is already set up costs a single round trip.
+ */
+class RepositoryInitializer {
+	private final HubicClient hubicClient;
+
+	RepositoryInitializer(HubicClient hubicClient) {
+		this.hubicClient = hubicClient;
+	}
+
+	/**
+	 * @param repoPath the directory of the repository, or "" for the
+	 *        container itself
+	 * @param repoFilePath the file whose presence means the repository
+	 *        exists
+	 * @param createIfRequired whether to create the repository directory if
+	 *        the repository does not exist
+	 * @param directories the directories within the repository, each
+	 *        ending with "/"
+	 * @return the number of directories created
+	 */
+	int init(String repoPath, String repoFilePath, boolean createIfRequired, List<String> directories) throws StorageException {
+		CompletableFuture<Response> repoFileProbe = createIfRequired ? hubicClient.headAsync(repoFilePath) : null;
+		CompletableFuture<Response> repoProbe = createIfRequired ? hubicClient.headAsync(repoPath) : null;
+		Map<String, CompletableFuture<Response>> probes = new LinkedHashMap<>();
+		for (String directory : directories) {
+			probes.put(directory, hubicClient.headAsync(directory));
+		}
+
+		int created = 0;
+		if (createIfRequired && !exists(repoFileProbe) && !exists(repoProbe)) {
+			awaitCreated(repoPath, hubicClient.createDirectoryAsync(repoPath));
+			created++;
+		}
+
+		// A directory that could not be looked up is created anyway, which
+		// does no harm if it is there after all
+		List<String> missing = new ArrayList<>();
+		for (Map.Entry<String, CompletableFuture<Response>> probe : probes.entrySet()) {
+			if (!exists(probe.getValue())) {
+				missing.add(probe.getKey());
+			}
+		}
+
+		Map<String, CompletableFuture<Response>> creates = new LinkedHashMap<>();
+		for (String directory : missing) {
+			creates.put(directory, hubicClient.createDirectoryAsync(directory));
+		}
+		StorageException failure = null;
+		for (Map.Entry<String, CompletableFuture<Response>> create : creates.entrySet()) {
+			try {
+				awaitCreated(create.getKey(), create.getValue());
+				created++;
+			} catch (StorageException e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return created;
+	}
+
+	private static boolean exists(CompletableFuture<Response> probe) throws StorageException {
+		try {
+			int code = HubicClient.await(probe).getCode();
+			// An object answers 200, the container 204
+			return code == 200 || code == 204;
+		} catch (IOException e) {
+			if (Thread.currentThread().isInterrupted()) {
+				throw new StorageException("Interrupted while looking up directories", e);
+			}
+			return false;
+		}
+	}
+
+	private static void awaitCreated(String directory, CompletableFuture<Response> create) throws StorageException {
+		try {
+			int code = HubicClient.await(create).getCode();
+			if (code != 201 && code != 202) {
+				throw new StorageException("Cannot create directory " + directory + ", code = " + code);
+			}
+		} catch (IOException e) {
+			throw new StorageException("Cannot create directory " + directory, e);
+		}
+	}
+}
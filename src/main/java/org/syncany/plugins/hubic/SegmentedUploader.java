@@ -0,0 +1,181 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.syncany.api.transfer.StorageException;
+import org.syncany.plugins.hubic.adioss.HubicClient;
+import org.syncany.plugins.hubic.adioss.ObjectMetadata;
+import org.syncany.plugins.hubic.adioss.Response;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Uploads large files as Swift static large objects: the file is split into
+ * segments that are uploaded in parallel to {@link HubicClient#SEGMENTS_CONTAINER},
+ * and a manifest listing the segments is then put at the target path.  A GET
+ * of the target returns the segments joined together, so downloads need no
+ * special handling.
+ * <p>
+ * A failed segment is retried on its own by {@link HubicClient}, without
+ * restarting the other segments.
+ * Segments have their own worker pool, because the uploads that use this
+ * class may themselves be running on the transfer manager's pool.
+ */
+class SegmentedUploader {
+	private static final long IDLE_TIMEOUT_SECONDS = 30;
+
+	private final HubicClient hubicClient;
+	private final long segmentSize;
+	private final ThreadPoolExecutor executor;
+
+	private volatile boolean segmentsContainerCreated = false;
+
+	/**
+	 * @param segmentSize files larger than this many bytes are uploaded in
+	 *        segments of this size, with 0 disabling segmented uploads
+	 * @param concurrentSegments the number of segments uploaded at once
+	 */
+	SegmentedUploader(HubicClient hubicClient, long segmentSize, int concurrentSegments) {
+		this.hubicClient = hubicClient;
+		this.segmentSize = segmentSize;
+
+		AtomicInteger threadNumber = new AtomicInteger();
+		executor = new ThreadPoolExecutor(concurrentSegments, concurrentSegments, IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), runnable -> {
+					Thread thread = new Thread(runnable, "hubic-segment-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	boolean shouldSegment(File localFile) {
+		return segmentSize > 0 && localFile.length() > segmentSize;
+	}
+
+	void upload(File localFile, String targetPath) throws StorageException {
+		ensureSegmentsContainer();
+
+		// A unique prefix, so that segments of an earlier upload to the same
+		// target are never overwritten while its manifest still refers to them
+		String segmentPrefix = targetPath + "/" + UUID.randomUUID() + "/";
+		long fileLength = localFile.length();
+
+		List<Future<JsonObject>> segments = new ArrayList<>();
+		for (long offset = 0, index = 1; offset < fileLength; offset += segmentSize, index++) {
+			String segmentPath = segmentPrefix + String.format("%08d", index);
+			long segmentOffset = offset;
+			long segmentLength = Math.min(segmentSize, fileLength - offset);
+			segments.add(executor.submit(() -> uploadSegment(localFile, segmentOffset, segmentLength, segmentPath)));
+		}
+
+		JsonArray manifest = new JsonArray();
+		StorageException failure = null;
+		for (Future<JsonObject> segment : segments) {
+			try {
+				manifest.add(segment.get());
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e.getCause() instanceof StorageException ? (StorageException) e.getCause()
+							: new StorageException("Segment upload failed", e.getCause());
+				}
+			} catch (InterruptedException e) {
+				for (Future<JsonObject> remaining : segments) {
+					remaining.cancel(true);
+				}
+				Thread.currentThread().interrupt();
+				throw new StorageException("Interrupted while uploading segments of " + targetPath, e);
+			}
+		}
+
+		if (failure != null) {
+			deleteSegments(manifest);
+			throw failure;
+		}
+
+		try {
+			Response response = hubicClient.uploadManifest(targetPath, manifest.toString());
+			if (response.getCode() != 201) {
+				deleteSegments(manifest);
+				throw new StorageException("Unable to upload manifest for " + targetPath + ", code = " + response.getCode());
+			}
+		} catch (IOException e) {
+			deleteSegments(manifest);
+			throw new StorageException("Unable to upload manifest for " + targetPath, e);
+		}
+	}
+
+	private JsonObject uploadSegment(File localFile, long offset, long length, String segmentPath) throws StorageException {
+		try {
+			Response response = hubicClient.uploadSegment(localFile, offset, length, segmentPath);
+			if (response.getCode() != 201) {
+				throw new StorageException("Unable to upload segment " + segmentPath + ", code = " + response.getCode());
+			}
+
+			JsonObject segment = new JsonObject();
+			segment.addProperty("path", "/" + HubicClient.SEGMENTS_CONTAINER + "/" + segmentPath);
+			segment.addProperty("etag", ObjectMetadata.fromResponse(response).getEtag());
+			segment.addProperty("size_bytes", length);
+			return segment;
+		} catch (IOException e) {
+			throw new StorageException("Unable to upload segment " + segmentPath, e);
+		}
+	}
+
+	private void ensureSegmentsContainer() throws StorageException {
+		if (!segmentsContainerCreated) {
+			try {
+				Response response = hubicClient.createSegmentsContainer();
+				if (response.getCode() != 201 && response.getCode() != 202 && response.getCode() != 204) {
+					throw new StorageException("Unable to create segments container, code = " + response.getCode());
+				}
+				segmentsContainerCreated = true;
+			} catch (IOException e) {
+				throw new StorageException("Unable to create segments container", e);
+			}
+		}
+	}
+
+	/**
+	 * Removes the segments of a failed upload, as far as possible.
+	 */
+	private void deleteSegments(JsonArray manifest) {
+		String prefix = "/" + HubicClient.SEGMENTS_CONTAINER + "/";
+		for (int i = 0; i < manifest.size(); i++) {
+			String path = manifest.get(i).getAsJsonObject().get("path").getAsString();
+			try {
+				hubicClient.deleteSegment(path.substring(prefix.length()));
+			} catch (IOException e) {
+				// Orphaned segments waste space but do no harm
+			}
+		}
+	}
+}
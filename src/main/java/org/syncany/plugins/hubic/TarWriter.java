@@ -0,0 +1,115 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a ustar archive of regular files in memory, as much of the format as
+ * Swift needs to extract an archive into objects.
+ */
+class TarWriter {
+	static final int BLOCK_SIZE = 512;
+
+	private static final int NAME_LENGTH = 100;
+	private static final int PREFIX_LENGTH = 155;
+
+	private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+	/**
+	 * @return the number of bytes an entry of the given size takes in the archive
+	 */
+	static long entrySize(long size) {
+		return BLOCK_SIZE + (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+	}
+
+	/**
+	 * @param path the path of the file within the archive, with '/' separators
+	 * @throws IOException if the path is too long for the ustar format
+	 */
+	void add(String path, byte[] content) throws IOException {
+		byte[] header = new byte[BLOCK_SIZE];
+		splitPath(path, header);
+		writeOctal(header, 100, 8, 0644);
+		writeOctal(header, 108, 8, 0);
+		writeOctal(header, 116, 8, 0);
+		writeOctal(header, 124, 12, content.length);
+		writeOctal(header, 136, 12, System.currentTimeMillis() / 1000);
+		header[156] = '0';
+		System.arraycopy(("ustar\0" + "00").getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+
+		// The checksum is computed with its own field taken as spaces
+		for (int i = 148; i < 156; i++) {
+			header[i] = ' ';
+		}
+		long checksum = 0;
+		for (byte b : header) {
+			checksum += b & 0xff;
+		}
+		writeOctal(header, 148, 7, checksum);
+
+		outputStream.write(header);
+		outputStream.write(content);
+		outputStream.write(new byte[(int) (entrySize(content.length) - BLOCK_SIZE - content.length)]);
+	}
+
+	/**
+	 * @return the archive, ended with the two empty blocks of the format
+	 */
+	byte[] finish() {
+		outputStream.write(new byte[2 * BLOCK_SIZE], 0, 2 * BLOCK_SIZE);
+		return outputStream.toByteArray();
+	}
+
+	private static void splitPath(String path, byte[] header) throws IOException {
+		byte[] name = path.getBytes(StandardCharsets.UTF_8);
+		if (name.length <= NAME_LENGTH) {
+			System.arraycopy(name, 0, header, 0, name.length);
+			return;
+		}
+
+		// Longer paths are split at a '/' into a prefix and a name
+		int split = path.lastIndexOf('/', PREFIX_LENGTH);
+		while (split > 0) {
+			byte[] prefix = path.substring(0, split).getBytes(StandardCharsets.UTF_8);
+			name = path.substring(split + 1).getBytes(StandardCharsets.UTF_8);
+			if (prefix.length <= PREFIX_LENGTH && name.length <= NAME_LENGTH) {
+				System.arraycopy(name, 0, header, 0, name.length);
+				System.arraycopy(prefix, 0, header, 345, prefix.length);
+				return;
+			}
+			split = path.lastIndexOf('/', split - 1);
+		}
+		throw new IOException("Path too long for a tar archive: " + path);
+	}
+
+	/**
+	 * Writes the value as zero-padded octal digits followed by a NUL.
+	 */
+	private static void writeOctal(byte[] header, int offset, int length, long value) {
+		String octal = Long.toOctalString(value);
+		int digits = length - 1;
+		for (int i = 0; i < digits; i++) {
+			int fromEnd = digits - 1 - i;
+			header[offset + i] = (byte) (fromEnd < octal.length() ? octal.charAt(octal.length() - 1 - fromEnd) : '0');
+		}
+		header[offset + digits] = 0;
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.syncany.api.transfer.StorageException;
+import org.syncany.plugins.hubic.adioss.VirtualThreads;
+
+/**
+ * Runs transfers on a bounded pool of worker threads so that several requests
+ * can be in flight at once.  Idle workers time out, so the pool costs nothing
+ * when the transfer manager is not in use.
+ * <p>
+ * Alternatively, where the running Java has virtual threads, each transfer
+ * can run on a virtual thread of its own.  Waiting transfers then cost
+ * almost nothing, so a batch of thousands of small files is started at once
+ * and the number of requests in flight is left to the
+ * {@link org.syncany.plugins.hubic.adioss.ConcurrencyLimiter}.
+ */
+class TransferExecutor {
+	private static final long IDLE_TIMEOUT_SECONDS = 30;
+
+	interface Transfer {
+		void run() throws StorageException;
+	}
+
+	private final ExecutorService executor;
+
+	/**
+	 * @param concurrentTransfers the number of worker threads in the pool
+	 * @param virtualThreads whether to run each transfer on a virtual thread
+	 *        instead, if the running Java has them
+	 */
+	TransferExecutor(int concurrentTransfers, boolean virtualThreads) {
+		ExecutorService virtualThreadExecutor = virtualThreads ? VirtualThreads.newThreadPerTaskExecutor("hubic-transfer-") : null;
+		executor = virtualThreadExecutor != null ? virtualThreadExecutor : createPool(concurrentTransfers);
+	}
+
+	private static ExecutorService createPool(int concurrentTransfers) {
+		AtomicInteger threadNumber = new AtomicInteger();
+		ThreadFactory threadFactory = runnable -> {
+			Thread thread = new Thread(runnable, "hubic-transfer-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(concurrentTransfers, concurrentTransfers, IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), threadFactory);
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * Runs all the given transfers and waits for them to complete.
+	 *
+	 * @return the failed transfers, in the iteration order of the given map
+	 */
+	<K> Map<K, StorageException> runAll(Map<K, Transfer> transfers) throws StorageException {
+		Map<K, Future<?>> futures = new LinkedHashMap<>();
+		for (Map.Entry<K, Transfer> transfer : transfers.entrySet()) {
+			futures.put(transfer.getKey(), executor.submit(() -> {
+				transfer.getValue().run();
+				return null;
+			}));
+		}
+
+		Map<K, StorageException> failures = new LinkedHashMap<>();
+		try {
+			for (Map.Entry<K, Future<?>> future : futures.entrySet()) {
+				try {
+					future.getValue().get();
+				} catch (ExecutionException e) {
+					failures.put(future.getKey(), toStorageException(e.getCause()));
+				}
+			}
+		} catch (InterruptedException e) {
+			for (Future<?> future : futures.values()) {
+				future.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			throw new StorageException("Interrupted while waiting for transfers", e);
+		}
+
+		return failures;
+	}
+
+	private static StorageException toStorageException(Throwable cause) {
+		if (cause instanceof StorageException) {
+			return (StorageException) cause;
+		}
+		return new StorageException("Unexpected transfer failure", cause);
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of the buffers that request and response bodies are copied
+ * through, so that a steady stream of transfers allocates no new buffers.
+ * The buffers are heap buffers, so that their arrays can be passed to streams
+ * as well as the buffers to channels.
+ * <p>
+ * A buffer is taken from the pool, or allocated if the pool is empty, and
+ * must be given back when the copy is done.  Buffers given back to a full
+ * pool are left to the garbage collector, so the pool never holds more than
+ * its bound however many transfers were once in flight.  The pool is backed
+ * by an array, so taking and giving back buffers allocates nothing either.
+ */
+final class BufferPool {
+	static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Enough for the transfers normally in flight, at 8 MB in all.
+	 */
+	private static final int MAX_POOLED_BUFFERS = 128;
+
+	static final BufferPool SHARED = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+
+	private final int bufferSize;
+	private final ArrayBlockingQueue<ByteBuffer> buffers;
+	private final AtomicLong allocatedCount = new AtomicLong();
+
+	BufferPool(int bufferSize, int maxPooledBuffers) {
+		this.bufferSize = bufferSize;
+		this.buffers = new ArrayBlockingQueue<>(maxPooledBuffers);
+	}
+
+	/**
+	 * @return a cleared buffer of the pool's size
+	 */
+	ByteBuffer acquire() {
+		ByteBuffer buffer = buffers.poll();
+		if (buffer == null) {
+			allocatedCount.incrementAndGet();
+			return ByteBuffer.allocate(bufferSize);
+		}
+		// Called through Buffer, as Java 9 and later compile a call on
+		// ByteBuffer to an override that Java 8 does not have
+		((Buffer) buffer).clear();
+		return buffer;
+	}
+
+	/**
+	 * Gives a buffer back to the pool.  It must not be used after this.
+	 */
+	void release(ByteBuffer buffer) {
+		if (buffer.capacity() == bufferSize) {
+			buffers.offer(buffer);
+		}
+	}
+
+	/**
+	 * @return the number of buffers allocated so far, because the pool was
+	 *         empty when one was wanted
+	 */
+	long getAllocatedCount() {
+		return allocatedCount.get();
+	}
+}
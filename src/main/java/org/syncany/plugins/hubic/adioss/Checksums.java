@@ -0,0 +1,67 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * MD5 checksums in the lower-case hex form that Swift uses for ETags.
+ */
+public class Checksums {
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	public static MessageDigest newMd5() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support MD5
+			throw new RuntimeException("MD5 is not supported", e);
+		}
+	}
+
+	public static String md5Hex(Path file) throws IOException {
+		MessageDigest md5 = newMd5();
+		ByteBuffer buffer = BufferPool.SHARED.acquire();
+		try (InputStream inputStream = Files.newInputStream(file)) {
+			int bytesRead;
+			while ((bytesRead = inputStream.read(buffer.array())) != -1) {
+				md5.update(buffer.array(), 0, bytesRead);
+			}
+		} finally {
+			BufferPool.SHARED.release(buffer);
+		}
+		return toHex(md5.digest());
+	}
+
+	public static String toHex(byte[] bytes) {
+		char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+			hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+		}
+		return new String(hex);
+	}
+}
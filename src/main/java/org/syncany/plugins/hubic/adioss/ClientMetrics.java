@@ -0,0 +1,351 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.syncany.api.transfer.features.PathAwareRemoteFileType;
+
+/**
+ * Counts the requests sent by a {@link HubicClient}, with the bytes they
+ * carried and their latency, by operation and by the type of remote file
+ * they were for.  A request is counted once, from when it is sent until its
+ * last attempt completes, so retries add to its latency but not to the
+ * count.
+ * <p>
+ * Every combination of operation and file type has its counters allocated
+ * up front, and the counters are {@link LongAdder}s and a
+ * {@link LatencyHistogram}, so recording a request takes no locks and
+ * allocates nothing, however many threads send requests.
+ * <p>
+ * The hits, misses and evictions of the download cache in front of the
+ * client are counted here too, so that they can be read alongside the
+ * requests they save.
+ */
+public class ClientMetrics implements ClientMetricsMXBean {
+	public enum Operation {
+		LIST, HEAD, UPLOAD, DOWNLOAD, COPY, DELETE, CREATE_DIRECTORY
+	}
+
+	/**
+	 * The status classes counted, by the first digit of the code, with
+	 * requests that got no response first.
+	 */
+	private static final String[] STATUS_CLASSES = { "failed", "1xx", "2xx", "3xx", "4xx", "5xx" };
+
+	private static final PathAwareRemoteFileType[] TYPES = PathAwareRemoteFileType.values();
+
+	/**
+	 * The counters of one operation on one type of file.
+	 */
+	static final class Cell {
+		private final Operation operation;
+		private final PathAwareRemoteFileType type;
+		private final LongAdder[] statusCounts = new LongAdder[STATUS_CLASSES.length];
+		private final LongAdder inFlight = new LongAdder();
+		private final LongAdder bytesSent = new LongAdder();
+		private final LongAdder bytesReceived = new LongAdder();
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		Cell(Operation operation, PathAwareRemoteFileType type) {
+			this.operation = operation;
+			this.type = type;
+			for (int i = 0; i < statusCounts.length; i++) {
+				statusCounts[i] = new LongAdder();
+			}
+		}
+
+		String getName() {
+			return operation + " " + (type != null ? type.name() : "Other");
+		}
+
+		long getRequestCount() {
+			long count = 0;
+			for (LongAdder statusCount : statusCounts) {
+				count += statusCount.sum();
+			}
+			return count;
+		}
+	}
+
+	private final Function<String, PathAwareRemoteFileType> classifier;
+
+	/**
+	 * By operation, then by file type, with files of no known type first.
+	 */
+	private final Cell[][] cells = new Cell[Operation.values().length][TYPES.length + 1];
+
+	private final LongAdder cacheHits = new LongAdder();
+	private final LongAdder cacheMisses = new LongAdder();
+	private final LongAdder cacheEvictions = new LongAdder();
+
+	/**
+	 * Counts every request as being for a file of no known type.
+	 */
+	public ClientMetrics() {
+		this(path -> null);
+	}
+
+	/**
+	 * @param classifier gives the type of remote file at a path, or null if
+	 *        the path holds no known type.  It is called for every request,
+	 *        so must be cheap.
+	 */
+	public ClientMetrics(Function<String, PathAwareRemoteFileType> classifier) {
+		this.classifier = classifier;
+		for (Operation operation : Operation.values()) {
+			cells[operation.ordinal()][0] = new Cell(operation, null);
+			for (PathAwareRemoteFileType type : TYPES) {
+				cells[operation.ordinal()][type.ordinal() + 1] = new Cell(operation, type);
+			}
+		}
+	}
+
+	/**
+	 * Counts a request as in flight.
+	 *
+	 * @param path the path of the object or directory, or null if the request
+	 *        has none
+	 * @return the counters to give to {@link #finish} when the request is done
+	 */
+	Cell start(Operation operation, String path) {
+		PathAwareRemoteFileType type = path != null ? classifier.apply(path) : null;
+		Cell cell = cells[operation.ordinal()][type != null ? type.ordinal() + 1 : 0];
+		cell.inFlight.increment();
+		return cell;
+	}
+
+	/**
+	 * Counts a request as done.
+	 *
+	 * @param startNanos the {@link System#nanoTime()} when it was sent
+	 * @param response the response to its last attempt, or null if there was none
+	 */
+	void finish(Cell cell, long startNanos, HttpRequest request, Response response) {
+		cell.latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+		cell.inFlight.decrement();
+
+		int code = response != null ? response.getCode() : 0;
+		cell.statusCounts[code >= 100 && code < 600 ? code / 100 : 0].increment();
+		cell.bytesSent.add(getBytesSent(request));
+		if (response != null) {
+			cell.bytesReceived.add(getBytesReceived(request, response));
+		}
+	}
+
+	/**
+	 * Counts a download served from the download cache.
+	 */
+	public void recordCacheHit() {
+		cacheHits.increment();
+	}
+
+	/**
+	 * Counts a download that fetched the object, whether it was not cached
+	 * or had changed.
+	 */
+	public void recordCacheMiss() {
+		cacheMisses.increment();
+	}
+
+	/**
+	 * Counts an object dropped from the download cache to make room.
+	 */
+	public void recordCacheEviction() {
+		cacheEvictions.increment();
+	}
+
+	/**
+	 * @return the length of the body, as recorded when it was set, or 0 if
+	 *         it was not known, so that no request costs a look at the file system
+	 */
+	static long getBytesSent(HttpRequest request) {
+		return Math.max(0, request.getBodyLength());
+	}
+
+	/**
+	 * @return the bytes written by a ranged download, even if it was cut
+	 *         short, or else the length of a successful GET's body, which is
+	 *         counted whether or not it was read
+	 */
+	static long getBytesReceived(HttpRequest request, Response response) {
+		if (response.getContent() instanceof Long) {
+			return (Long) response.getContent();
+		}
+		String contentLength = response.getHeader("Content-Length");
+		if (!"GET".equals(request.getMethod()) || response.getCode() >= 300 || contentLength == null) {
+			return 0;
+		}
+		try {
+			return Long.parseLong(contentLength.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	@Override
+	public long getRequestCount() {
+		long count = 0;
+		for (Cell[] operationCells : cells) {
+			for (Cell cell : operationCells) {
+				count += cell.getRequestCount();
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public long getErrorCount() {
+		long count = 0;
+		for (Cell[] operationCells : cells) {
+			for (Cell cell : operationCells) {
+				count += cell.statusCounts[0].sum() + cell.statusCounts[5].sum();
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public long getInFlightCount() {
+		long count = 0;
+		for (Cell[] operationCells : cells) {
+			for (Cell cell : operationCells) {
+				count += cell.inFlight.sum();
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public long getBytesSent() {
+		long bytes = 0;
+		for (Cell[] operationCells : cells) {
+			for (Cell cell : operationCells) {
+				bytes += cell.bytesSent.sum();
+			}
+		}
+		return bytes;
+	}
+
+	@Override
+	public long getBytesReceived() {
+		long bytes = 0;
+		for (Cell[] operationCells : cells) {
+			for (Cell cell : operationCells) {
+				bytes += cell.bytesReceived.sum();
+			}
+		}
+		return bytes;
+	}
+
+	@Override
+	public long getCacheHitCount() {
+		return cacheHits.sum();
+	}
+
+	@Override
+	public long getCacheMissCount() {
+		return cacheMisses.sum();
+	}
+
+	@Override
+	public long getCacheEvictionCount() {
+		return cacheEvictions.sum();
+	}
+
+	@Override
+	public Map<String, Long> getRequestCounts() {
+		Map<String, Long> counts = new TreeMap<>();
+		for (Cell[] operationCells : cells) {
+			for (Cell cell : operationCells) {
+				for (int i = 0; i < STATUS_CLASSES.length; i++) {
+					putIfNonZero(counts, cell.getName() + " " + STATUS_CLASSES[i], cell.statusCounts[i].sum());
+				}
+			}
+		}
+		return counts;
+	}
+
+	@Override
+	public Map<String, Long> getByteCounts() {
+		Map<String, Long> counts = new TreeMap<>();
+		for (Cell[] operationCells : cells) {
+			for (Cell cell : operationCells) {
+				putIfNonZero(counts, cell.getName() + " sent", cell.bytesSent.sum());
+				putIfNonZero(counts, cell.getName() + " received", cell.bytesReceived.sum());
+			}
+		}
+		return counts;
+	}
+
+	@Override
+	public Map<String, Long> getLatencyMicros() {
+		Map<String, Long> latencies = new TreeMap<>();
+		for (Cell[] operationCells : cells) {
+			for (Cell cell : operationCells) {
+				if (cell.latency.getCount() > 0) {
+					latencies.put(cell.getName() + " p50", cell.latency.getPercentile(50));
+					latencies.put(cell.getName() + " p90", cell.latency.getPercentile(90));
+					latencies.put(cell.getName() + " p99", cell.latency.getPercentile(99));
+					latencies.put(cell.getName() + " max", cell.latency.getPercentile(100));
+				}
+			}
+		}
+		return latencies;
+	}
+
+	@Override
+	public String getReport() {
+		StringBuilder report = new StringBuilder(String.format("%-30s %8s %8s %8s %8s %8s %8s %8s %12s %12s %9s %9s %9s",
+				"operation", "requests", "2xx", "3xx", "4xx", "5xx", "failed", "inflight", "sent", "received",
+				"p50 ms", "p99 ms", "max ms"));
+		for (Cell[] operationCells : cells) {
+			for (Cell cell : operationCells) {
+				long inFlight = cell.inFlight.sum();
+				if (cell.getRequestCount() == 0 && inFlight == 0) {
+					continue;
+				}
+				report.append(String.format("%n%-30s %8d %8d %8d %8d %8d %8d %8d %12d %12d %9.1f %9.1f %9.1f",
+						cell.getName(), cell.getRequestCount(), cell.statusCounts[2].sum(), cell.statusCounts[3].sum(),
+						cell.statusCounts[4].sum(), cell.statusCounts[5].sum(), cell.statusCounts[0].sum(), inFlight,
+						cell.bytesSent.sum(), cell.bytesReceived.sum(), cell.latency.getPercentile(50) / 1000.0,
+						cell.latency.getPercentile(99) / 1000.0, cell.latency.getPercentile(100) / 1000.0));
+			}
+		}
+
+		long hits = cacheHits.sum();
+		long misses = cacheMisses.sum();
+		long evictions = cacheEvictions.sum();
+		if (hits > 0 || misses > 0 || evictions > 0) {
+			report.append(String.format("%n%-30s %8d hits %8d misses %8d evictions", "download cache", hits, misses, evictions));
+		}
+		return report.toString();
+	}
+
+	private static void putIfNonZero(Map<String, Long> map, String key, long value) {
+		if (value != 0) {
+			map.put(key, value);
+		}
+	}
+}
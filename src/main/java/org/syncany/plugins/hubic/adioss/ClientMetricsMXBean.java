@@ -0,0 +1,88 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link ClientMetrics}, through which JMX
+ * clients such as JConsole see the requests that a {@link HubicClient} has
+ * sent.  Each key of the maps names an operation, the type of the remote
+ * file and, where it applies, what is counted, such as
+ * <code>UPLOAD Multichunk 2xx</code>.  Only non-zero entries are included.
+ */
+public interface ClientMetricsMXBean {
+	long getRequestCount();
+
+	/**
+	 * @return the number of requests that got no response, or a response
+	 *         with a 5xx code
+	 */
+	long getErrorCount();
+
+	long getInFlightCount();
+
+	long getBytesSent();
+
+	long getBytesReceived();
+
+	/**
+	 * @return the number of downloads served from the download cache
+	 */
+	long getCacheHitCount();
+
+	/**
+	 * @return the number of downloads that fetched the object, whether it
+	 *         was not cached or had changed
+	 */
+	long getCacheMissCount();
+
+	/**
+	 * @return the number of objects dropped from the download cache to make
+	 *         room
+	 */
+	long getCacheEvictionCount();
+
+	/**
+	 * @return the number of requests by operation, file type and status
+	 *         class, with <code>failed</code> for requests that got no
+	 *         response
+	 */
+	Map<String, Long> getRequestCounts();
+
+	/**
+	 * @return the bytes by operation, file type and direction,
+	 *         <code>sent</code> or <code>received</code>
+	 */
+	Map<String, Long> getByteCounts();
+
+	/**
+	 * @return the latencies in microseconds by operation, file type and
+	 *         percentile, <code>p50</code>, <code>p90</code>, <code>p99</code>
+	 *         or <code>max</code>
+	 */
+	Map<String, Long> getLatencyMicros();
+
+	/**
+	 * @return a table of everything counted, one line per operation and file
+	 *         type, followed by the download cache's counts if it was used
+	 */
+	String getReport();
+}
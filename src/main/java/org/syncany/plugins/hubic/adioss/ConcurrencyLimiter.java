@@ -0,0 +1,257 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of requests in flight, adapting the limit to how the
+ * server copes (additive increase, multiplicative decrease).
+ * <p>
+ * Each request that succeeds while the limit is fully used raises the limit
+ * by 1/limit, so the limit grows by about one for every round of requests.
+ * A request that is throttled (429 or 503), times out, or takes more than
+ * {@value #LATENCY_TOLERANCE} times the usual latency for its method halves
+ * the limit.  Only requests started after the last decrease can decrease it
+ * again, so a burst of failures from one round of requests counts once.
+ * <p>
+ * Only requests moving at most {@value #MAX_TIMED_BYTES} bytes are judged,
+ * and averaged, by their latency, as a large transfer takes long however
+ * lightly the server is loaded.  Large transfers lower the limit only when
+ * they are throttled or time out.
+ */
+public class ConcurrencyLimiter {
+	public enum Outcome {
+		/**
+		 * The server answered, even if with an error such as 404.
+		 */
+		SUCCESS,
+
+		/**
+		 * The server is throttling or not keeping up.
+		 */
+		OVERLOADED,
+
+		/**
+		 * The request failed in a way that says nothing about the server's load.
+		 */
+		FAILED
+	}
+
+	private static final double DECREASE_FACTOR = 0.5;
+	private static final double LATENCY_TOLERANCE = 3.0;
+
+	/**
+	 * Requests quicker than this are never counted as slow, so that jitter in
+	 * the latency of very quick requests does not lower the limit.
+	 */
+	private static final long MIN_SLOW_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+	/**
+	 * The most bytes sent and received by a request whose latency says
+	 * something about the server's load rather than the size of the transfer.
+	 */
+	static final long MAX_TIMED_BYTES = 64 * 1024;
+
+	/**
+	 * The weight of each new sample in the moving average of latencies.
+	 */
+	private static final double LATENCY_WEIGHT = 0.05;
+
+	private final int minLimit;
+	private final int maxLimit;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Callers of {@link #acquire()} and {@link #acquireAsync()} waiting for a
+	 * request to finish, in the order they asked, so that neither kind of
+	 * caller can overtake the other.
+	 */
+	private final Queue<CompletableFuture<Long>> waiters = new ArrayDeque<>();
+
+	private double limit;
+	private int inFlight;
+	private long lastDecreaseNanos;
+	private long decreaseCount;
+
+	/**
+	 * The average latency in nanoseconds of each HTTP method, because a
+	 * transfer is naturally much slower than a HEAD.
+	 */
+	private final Map<String, Double> usualLatencies = new HashMap<>();
+
+	public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+		this.limit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.lastDecreaseNanos = System.nanoTime();
+	}
+
+	/**
+	 * A limiter that never blocks.
+	 */
+	public static ConcurrencyLimiter unlimited() {
+		return new ConcurrencyLimiter(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Waits until another request may be sent.  Every call must be followed
+	 * by a call to {@link #release}.
+	 *
+	 * @return the start time of the request, to be passed to {@link #release}
+	 */
+	public long acquire() throws InterruptedIOException {
+		CompletableFuture<Long> waiter = acquireAsync();
+		try {
+			return waiter.get();
+		} catch (InterruptedException e) {
+			if (!waiter.cancel(false)) {
+				// Admitted meanwhile, so hand the place on
+				release(waiter.join(), null, Outcome.FAILED);
+			}
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to send a request");
+		} catch (ExecutionException e) {
+			// Waiters are only ever completed normally
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Like {@link #acquire()}, but without blocking the calling thread.  The
+	 * future completes, on the thread that releases a request, once another
+	 * request may be sent.
+	 */
+	public CompletableFuture<Long> acquireAsync() {
+		lock.lock();
+		try {
+			if (waiters.isEmpty() && inFlight < (int) limit) {
+				inFlight++;
+				return CompletableFuture.completedFuture(System.nanoTime());
+			}
+			CompletableFuture<Long> waiter = new CompletableFuture<>();
+			waiters.add(waiter);
+			return waiter;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Like {@link #release(long, String, long, Outcome)}, for a request that
+	 * moved little data.
+	 */
+	public void release(long startNanos, String method, Outcome outcome) {
+		release(startNanos, method, 0, outcome);
+	}
+
+	/**
+	 * @param startNanos the value returned by {@link #acquire()} or {@link #acquireAsync()}
+	 * @param method the HTTP method of the request
+	 * @param bytes the bytes of body sent and received by the request
+	 */
+	public void release(long startNanos, String method, long bytes, Outcome outcome) {
+		long latency = System.nanoTime() - startNanos;
+		List<CompletableFuture<Long>> admitted = new ArrayList<>();
+
+		lock.lock();
+		try {
+			boolean wasFull = inFlight >= (int) limit;
+			inFlight--;
+
+			boolean slow = false;
+			if (outcome == Outcome.SUCCESS && bytes <= MAX_TIMED_BYTES) {
+				Double usualLatency = usualLatencies.get(method);
+				slow = usualLatency != null && latency > LATENCY_TOLERANCE * usualLatency && latency > MIN_SLOW_LATENCY_NANOS;
+				usualLatencies.put(method, usualLatency == null ? latency : usualLatency + LATENCY_WEIGHT * (latency - usualLatency));
+			}
+
+			if (outcome == Outcome.OVERLOADED || slow) {
+				if (startNanos - lastDecreaseNanos > 0) {
+					limit = Math.max(minLimit, limit * DECREASE_FACTOR);
+					lastDecreaseNanos = System.nanoTime();
+					decreaseCount++;
+				}
+			} else if (outcome == Outcome.SUCCESS && wasFull) {
+				limit = Math.min(maxLimit, limit + 1 / limit);
+			}
+
+			while (!waiters.isEmpty() && inFlight < (int) limit) {
+				inFlight++;
+				admitted.add(waiters.remove());
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		// Completed outside the lock, as completing runs the waiter's next stage
+		for (CompletableFuture<Long> waiter : admitted) {
+			long now = System.nanoTime();
+			if (!waiter.complete(now)) {
+				// Cancelled while waiting, so hand the place on
+				release(now, null, Outcome.FAILED);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of requests currently allowed in flight
+	 */
+	public int getLimit() {
+		lock.lock();
+		try {
+			return (int) limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getInFlight() {
+		lock.lock();
+		try {
+			return inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of times the limit was lowered
+	 */
+	public long getDecreaseCount() {
+		lock.lock();
+		try {
+			return decreaseCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+/**
+ * The object count and bytes used of a container, as reported in the headers
+ * of container GET and HEAD responses.  Comparing two of these is a cheap,
+ * if approximate, way to tell whether the container has changed.
+ */
+public class ContainerStats {
+	private final long objectCount;
+	private final long bytesUsed;
+
+	public ContainerStats(long objectCount, long bytesUsed) {
+		this.objectCount = objectCount;
+		this.bytesUsed = bytesUsed;
+	}
+
+	/**
+	 * @return the stats from the response headers, or null if the response does not include them
+	 */
+	public static ContainerStats fromResponse(Response response) {
+		String objectCount = response.getHeader("X-Container-Object-Count");
+		String bytesUsed = response.getHeader("X-Container-Bytes-Used");
+		if (objectCount == null || bytesUsed == null) {
+			return null;
+		}
+
+		try {
+			return new ContainerStats(Long.parseLong(objectCount.trim()), Long.parseLong(bytesUsed.trim()));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	public long getObjectCount() {
+		return objectCount;
+	}
+
+	public long getBytesUsed() {
+		return bytesUsed;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof ContainerStats)) {
+			return false;
+		}
+		ContainerStats otherStats = (ContainerStats) other;
+		return objectCount == otherStats.objectCount && bytesUsed == otherStats.bytesUsed;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(objectCount) * 31 + Long.hashCode(bytesUsed);
+	}
+}
@@ -19,215 +19,222 @@
  */
 package org.syncany.plugins.hubic.adioss;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.HttpsURLConnection;
 
-import com.google.gson.JsonParser;
-
-public class HttpAPI {
-    private URL url;
-    private Map<String, String> headers;
-    private Map<String, String> urlParameters;
-    private Map<String, String> postData;
-    private Output output;
-    private Path outputPath;
-
-
-    public HttpAPI query(String url) {
-        try {
-            this.url = new URL(url);
-            this.headers = new HashMap<>();
-            this.urlParameters = new HashMap<>();
-            this.postData = new HashMap<>();
-            this.output = Output.PLAIN;
-            this.outputPath = null;
-        } catch (MalformedURLException e) {
-            e.printStackTrace();
-        }
-        return this;
-    }
-
-    public HttpAPI header(String key, String value) {
-        this.headers.put(key, value);
-        return this;
-    }
-
-
-    public HttpAPI urlParameter(String key, String value) {
-        this.urlParameters.put(key, value);
-        return this;
-    }
-
-
-    public HttpAPI postData(String key, String value) {
-        this.postData.put(key, value);
-        return this;
-    }
-
-    public HttpAPI plain() {
-        this.output = Output.PLAIN;
-        return this;
-    }
-
-    public HttpAPI binary(Path target) {
-        outputPath = target;
-        this.output = Output.BINARY;
-        return this;
-    }
-
-    public HttpAPI json() {
-        this.output = Output.JSON;
-        return this;
-    }
-
-    public HttpAPI jsonArray() {
-        this.output = Output.JSON_ARRAY;
-        return this;
-    }
+/**
+ * Sends {@link HttpRequest}s with {@link HttpURLConnection}, one request at a
+ * time on each connection.  This class holds no per-request state, so a
+ * single instance can be shared by any number of threads.
+ * <p>
+ * The JDK keeps a connection alive for the next request only once the body
+ * of the previous response, or its error body, has been read to the end and
+ * closed.  Every response is therefore fully consumed here, even when its
+ * content is not wanted, so that requests do not each pay for a new
+ * connection and TLS handshake.
+ * <p>
+ * Nothing here blocks while holding a monitor, so requests may be sent from
+ * virtual threads without pinning their carrier threads.
+ */
+public class HttpAPI implements HttpTransport {
+    private static final int BUFFER_SIZE = BufferPool.BUFFER_SIZE;
 
+    private static final boolean maxConnectionsSetByUser = System.getProperty("http.maxConnections") != null;
 
-    // HTTP GET request
-    public Response get() throws IOException {
-        return basicHttpQuery("GET");
-    }
+    /**
+     * HttpURLConnection holds a thread for the whole of a request, so
+     * asynchronous requests are sent from a pool of at most this many threads.
+     */
+    private static final int MAX_ASYNC_THREADS = 64;
 
-    // HTTP HEAD request
-    public Response head() throws IOException {
-        return basicHttpQuery("HEAD");
-    }
+    private static final int IDLE_TIMEOUT_SECONDS = 60;
 
-    // HTTP DELETE request
-    public Response delete() throws IOException {
-        return basicHttpQuery("DELETE");
-    }
+    private static final AtomicLong httpsRequestCount = new AtomicLong();
 
-    // HTTP PUT request
-    public Response put() throws IOException {
-        return put((Path)null);
-    }
+    private static final ThreadPoolExecutor sharedAsyncExecutor = createAsyncExecutor();
 
-    public Response put(Path sourcePath) throws IOException {
-    	HttpsURLConnection httpsURLConnection = (HttpsURLConnection) this.url.openConnection();
-    	httpsURLConnection.setRequestMethod("PUT");
-    	appendUrlParameter(httpsURLConnection);
-    	appendHeaders(httpsURLConnection);
-    	httpsURLConnection.setDoOutput(true);
-    	if (sourcePath != null) {
-    		try (BufferedOutputStream outputStream = new BufferedOutputStream(httpsURLConnection.getOutputStream());
-    				BufferedInputStream inputStream = new BufferedInputStream(new FileInputStream(sourcePath.toFile()))) {
-    			int i;
-    			while ((i = inputStream.read()) >= 0) {
-    				outputStream.write(i);
-    			}
-    		}
-    	} else {
-    		httpsURLConnection.setFixedLengthStreamingMode(0);
-    	}
-
-    	return new Response(httpsURLConnection.getResponseCode(), httpsURLConnection.getHeaderFields(), getResponseContent(httpsURLConnection));
-    }
+    private final ExecutorService asyncExecutor;
 
-    public Response put(InputStream inputStream) throws IOException {
-    	HttpsURLConnection httpsURLConnection = (HttpsURLConnection) this.url.openConnection();
-    	httpsURLConnection.setRequestMethod("PUT");
-    	appendUrlParameter(httpsURLConnection);
-    	appendHeaders(httpsURLConnection);
-    	httpsURLConnection.setDoOutput(true);
-    	try (BufferedOutputStream outputStream = new BufferedOutputStream(httpsURLConnection.getOutputStream())) {
-    		int i;
-    		while ((i = inputStream.read()) >= 0) {
-    			outputStream.write(i);
-    		}
-    	}
-
-    	return new Response(httpsURLConnection.getResponseCode(), httpsURLConnection.getHeaderFields(), getResponseContent(httpsURLConnection));
+    /**
+     * Sets how many idle connections to each server the JDK keeps alive, which
+     * should be at least the number of requests sent at once, as the JDK
+     * default of 5 is less than the transfers normally in flight.  This applies to
+     * the whole JVM, and the JDK reads it only once, when it first keeps a
+     * connection alive, so a call after that has no effect.  A value given on
+     * the command line with <code>-Dhttp.maxConnections</code> always wins.
+     */
+    public static void setMaxIdleConnections(int maxIdleConnections) {
+        if (!maxConnectionsSetByUser) {
+            System.setProperty("http.maxConnections", Integer.toString(maxIdleConnections));
+        }
     }
 
-    private Response basicHttpQuery(String verb) throws IOException {
-    	HttpsURLConnection httpsURLConnection = (HttpsURLConnection) this.url.openConnection();
-    	httpsURLConnection.setRequestMethod(verb);
-    	appendUrlParameter(httpsURLConnection);
-    	appendHeaders(httpsURLConnection);
-    	return new Response(httpsURLConnection.getResponseCode(), httpsURLConnection.getHeaderFields(), getResponseContent(httpsURLConnection));
+    /**
+     * @return the number of HTTPS connections opened so far in this JVM, each
+     *         of which needed a TLS handshake
+     */
+    public static long getHandshakeCount() {
+        return CountingSSLSocketFactory.INSTANCE.getSocketCount();
+    }
+
+    /**
+     * @return the number of HTTPS requests so far in this JVM that were sent
+     *         on a connection kept alive from an earlier request
+     */
+    public static long getReusedConnectionCount() {
+        return Math.max(0, httpsRequestCount.get() - getHandshakeCount());
+    }
+
+    /**
+     * Sends asynchronous requests from a shared, bounded pool of threads.
+     */
+    public HttpAPI() {
+        this(sharedAsyncExecutor);
+    }
+
+    /**
+     * @param asyncExecutor runs each asynchronous request, for example on a
+     *        virtual thread of its own
+     */
+    public HttpAPI(ExecutorService asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    private static ThreadPoolExecutor createAsyncExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_ASYNC_THREADS, MAX_ASYNC_THREADS, IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), runnable -> {
+                    Thread thread = new Thread(runnable, "hubic-http-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Override
+    public CompletableFuture<Response> executeAsync(HttpRequest request) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        asyncExecutor.execute(() -> {
+            if (future.isDone()) {
+                // Cancelled before it was sent
+                return;
+            }
+            try {
+                future.complete(execute(request));
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
     }
 
-    private Object getResponseContent(HttpsURLConnection httpsURLConnection) throws IOException {
-        if (this.output == Output.BINARY) {
-        	try (InputStream inputStream = httpsURLConnection.getInputStream();
-        			FileOutputStream outputStream = new FileOutputStream(outputPath.toFile())) {
-        		int bytesRead = -1;
-        		byte[] buffer = new byte[1024];
-        		while ((bytesRead = inputStream.read(buffer)) != -1) {
-        			outputStream.write(buffer, 0, bytesRead);
-        		}
-        	} catch (IOException e) {
-        		// If this method is called for a failure response, we get here.
-        		// Ideally the code should be checked before we attempt to get the content
-        		// but for time being just return null content.
-        		return null;
-        	}
-            return outputPath;
-        } else {
-        	try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(httpsURLConnection.getInputStream()))) {
-        		String inputLine;
-        		StringBuilder response = new StringBuilder();
-        		while ((inputLine = bufferedReader.readLine()) != null) {
-        			response.append(inputLine);
-        		}
-        		bufferedReader.close();
-        		return convertResult(response);
-        	} catch (IOException e) {
-        		// If this method is called for a failure response, we get here.
-        		// Ideally the code should be checked before we attempt to get the content
-        		// but for time being just return null content.
-        		return null;
-        	}
+    @Override
+    public Response execute(HttpRequest request) throws IOException {
+        HttpURLConnection httpURLConnection = (HttpURLConnection) request.toURL().openConnection();
+        if (httpURLConnection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) httpURLConnection).setSSLSocketFactory(CountingSSLSocketFactory.INSTANCE);
+            httpsRequestCount.incrementAndGet();
         }
-    }
+        httpURLConnection.setRequestMethod(request.getMethod());
+        appendHeaders(httpURLConnection, request);
 
-    private void appendHeaders(HttpsURLConnection httpsURLConnection) {
-        for (String key : this.headers.keySet()) {
-            httpsURLConnection.setRequestProperty(key, this.headers.get(key));
+        // Files are hashed as they are copied, for checking against the ETag
+        MessageDigest digest = Checksums.newMd5();
+        if (request.hasBody()) {
+            writeBody(httpURLConnection, request, digest);
         }
-    }
 
-    private void appendUrlParameter(HttpsURLConnection httpsURLConnection) {
-        for (String key : this.urlParameters.keySet()) {
-            httpsURLConnection.setRequestProperty(key, this.urlParameters.get(key));
+        int code = httpURLConnection.getResponseCode();
+        Object content = null;
+        if (request.getOutput() == HttpRequest.Output.STREAM) {
+            content = new ResponseBody(code >= 400 ? httpURLConnection.getErrorStream() : httpURLConnection.getInputStream());
+        } else if (code >= 400) {
+            ResponseReader.discard(httpURLConnection.getErrorStream());
+        } else if (!ResponseReader.hasContent(code)) {
+            ResponseReader.discard(httpURLConnection.getInputStream());
+        } else {
+            content = ResponseReader.read(httpURLConnection::getInputStream, request, digest);
         }
+        return new Response(code, httpURLConnection.getHeaderFields(), content, ResponseReader.getBodyMd5(request, digest));
     }
 
-    private Object convertResult(StringBuilder response) {
-        switch (this.output) {
-            case JSON: {
-                JsonParser parser = new JsonParser();
-                return parser.parse(response.toString());
+    private void writeBody(HttpURLConnection httpURLConnection, HttpRequest request, MessageDigest digest) throws IOException {
+        httpURLConnection.setDoOutput(true);
+
+        if (request.getBodyPath() != null) {
+            long length = request.getBodyLength() >= 0 ? request.getBodyLength() : Files.size(request.getBodyPath()) - request.getBodyOffset();
+            httpURLConnection.setFixedLengthStreamingMode(length);
+            try (FileChannel fileChannel = FileChannel.open(request.getBodyPath(), StandardOpenOption.READ);
+                    OutputStream outputStream = new DigestOutputStream(httpURLConnection.getOutputStream(), digest)) {
+                fileChannel.position(request.getBodyOffset());
+                copy(fileChannel, outputStream, length);
             }
-            case JSON_ARRAY: {
-                JsonParser parser = new JsonParser();
-                return parser.parse(response.toString()).getAsJsonArray();
+        } else if (request.getBodyBytes() != null) {
+            httpURLConnection.setFixedLengthStreamingMode(request.getBodyBytes().length);
+            try (OutputStream outputStream = httpURLConnection.getOutputStream()) {
+                outputStream.write(request.getBodyBytes());
             }
-            default: {
-                return response.toString();
+        } else if (request.getBodyStream() != null) {
+            if (request.getBodyLength() >= 0) {
+                httpURLConnection.setFixedLengthStreamingMode(request.getBodyLength());
+            } else {
+                httpURLConnection.setChunkedStreamingMode(BUFFER_SIZE);
             }
+            try (OutputStream outputStream = httpURLConnection.getOutputStream()) {
+                ResponseReader.copy(request.getBodyStream(), outputStream);
+            }
+        } else {
+            httpURLConnection.setFixedLengthStreamingMode(0);
+        }
+    }
 
+    /**
+     * Copies exactly <code>length</code> bytes, through a pooled buffer.
+     */
+    private static void copy(FileChannel fileChannel, OutputStream outputStream, long length) throws IOException {
+        ByteBuffer buffer = BufferPool.SHARED.acquire();
+        try {
+            long remaining = length;
+            while (remaining > 0) {
+                // See BufferPool.acquire for why these go through Buffer
+                ((Buffer) buffer).clear();
+                ((Buffer) buffer).limit((int) Math.min(buffer.capacity(), remaining));
+                int bytesRead = fileChannel.read(buffer);
+                if (bytesRead == -1) {
+                    throw new IOException("Body source ended " + remaining + " bytes early");
+                }
+                outputStream.write(buffer.array(), 0, bytesRead);
+                remaining -= bytesRead;
+            }
+        } finally {
+            BufferPool.SHARED.release(buffer);
         }
     }
 
-    private enum Output {
-        PLAIN, JSON, JSON_ARRAY, BINARY
+    private void appendHeaders(HttpURLConnection httpURLConnection, HttpRequest request) {
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            httpURLConnection.setRequestProperty(header.getKey(), header.getValue());
+        }
     }
 }
@@ -0,0 +1,318 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An immutable description of a single HTTP request.  Every modifier returns
+ * a new instance, so a request can be built up and shared between threads
+ * without any coordination.  Requests are sent by {@link HttpAPI#execute(HttpRequest)}.
+ */
+public final class HttpRequest {
+	public enum Output {
+		NONE, PLAIN, JSON, JSON_ARRAY, LISTING, BINARY, STREAM
+	}
+
+	private final String method;
+	private final String url;
+	private final Map<String, String> headers;
+	private final Map<String, String> urlParameters;
+	private final Output output;
+	private final Path outputPath;
+	private final long outputPosition;
+	private final Path bodyPath;
+	private final long bodyOffset;
+	private final InputStream bodyStream;
+	private final byte[] bodyBytes;
+	private final long bodyLength;
+
+	private HttpRequest(String method, String url, Map<String, String> headers, Map<String, String> urlParameters,
+			Output output, Path outputPath, long outputPosition, Path bodyPath, long bodyOffset, InputStream bodyStream, byte[] bodyBytes, long bodyLength) {
+		this.method = method;
+		this.url = url;
+		this.headers = headers;
+		this.urlParameters = urlParameters;
+		this.output = output;
+		this.outputPath = outputPath;
+		this.outputPosition = outputPosition;
+		this.bodyPath = bodyPath;
+		this.bodyOffset = bodyOffset;
+		this.bodyStream = bodyStream;
+		this.bodyBytes = bodyBytes;
+		this.bodyLength = bodyLength;
+	}
+
+	private static HttpRequest create(String method, String url) {
+		return new HttpRequest(method, url, Collections.<String, String>emptyMap(), Collections.<String, String>emptyMap(),
+				Output.NONE, null, -1, null, 0, null, null, 0);
+	}
+
+	public static HttpRequest get(String url) {
+		return create("GET", url);
+	}
+
+	public static HttpRequest head(String url) {
+		return create("HEAD", url);
+	}
+
+	public static HttpRequest delete(String url) {
+		return create("DELETE", url);
+	}
+
+	/**
+	 * A PUT request with an empty body, unless a body is added with one of the
+	 * <code>body</code> methods.
+	 */
+	public static HttpRequest put(String url) {
+		return create("PUT", url);
+	}
+
+	/**
+	 * A POST request with an empty body, unless a body is added with one of
+	 * the <code>body</code> methods.
+	 */
+	public static HttpRequest post(String url) {
+		return create("POST", url);
+	}
+
+	public HttpRequest header(String key, String value) {
+		return new HttpRequest(method, url, with(headers, key, value), urlParameters, output, outputPath, outputPosition,
+				bodyPath, bodyOffset, bodyStream, bodyBytes, bodyLength);
+	}
+
+	public HttpRequest urlParameter(String key, String value) {
+		return new HttpRequest(method, url, headers, with(urlParameters, key, value), output, outputPath, outputPosition,
+				bodyPath, bodyOffset, bodyStream, bodyBytes, bodyLength);
+	}
+
+	/**
+	 * Reads and drops the response body, which is the default, for requests
+	 * whose body nobody looks at.
+	 */
+	public HttpRequest noContent() {
+		return withOutput(Output.NONE, null, -1);
+	}
+
+	public HttpRequest plain() {
+		return withOutput(Output.PLAIN, null, -1);
+	}
+
+	public HttpRequest json() {
+		return withOutput(Output.JSON, null, -1);
+	}
+
+	public HttpRequest jsonArray() {
+		return withOutput(Output.JSON_ARRAY, null, -1);
+	}
+
+	/**
+	 * Decodes the response as a container listing, giving a list of {@link ListingEntry}.
+	 */
+	public HttpRequest listing() {
+		return withOutput(Output.LISTING, null, -1);
+	}
+
+	/**
+	 * Writes the response body to the given file, replacing any previous content.
+	 */
+	public HttpRequest binary(Path target) {
+		return withOutput(Output.BINARY, target, -1);
+	}
+
+	/**
+	 * Writes the response body into the given file starting at the given
+	 * position, leaving the rest of the file as it is.  The content of the
+	 * response is the number of bytes written, which is less than the length
+	 * of the body if the connection dropped part way through, so that the
+	 * caller can resume from where the transfer stopped.
+	 */
+	public HttpRequest binary(Path target, long position) {
+		return withOutput(Output.BINARY, target, position);
+	}
+
+	/**
+	 * Returns the response as soon as its status and headers arrive, with
+	 * the body, even of a failure, left unread in a {@link ResponseBody} for
+	 * the caller to read and close.
+	 */
+	public HttpRequest stream() {
+		return withOutput(Output.STREAM, null, -1);
+	}
+
+	/**
+	 * Requests only the given bytes of the object, both positions inclusive.
+	 */
+	public HttpRequest range(long first, long last) {
+		return header("Range", "bytes=" + first + "-" + last);
+	}
+
+	/**
+	 * Sends the given file as the body, streamed with its length as it is
+	 * now, which is recorded so that the file is not checked again for it.
+	 */
+	public HttpRequest body(Path source) {
+		return body(source, 0, source.toFile().length());
+	}
+
+	/**
+	 * Sends part of the given file as the body.
+	 *
+	 * @param offset the position in the file of the first byte to send
+	 * @param length the number of bytes to send, or -1 to send the rest of the file
+	 */
+	public HttpRequest body(Path source, long offset, long length) {
+		return new HttpRequest(method, url, headers, urlParameters, output, outputPath, outputPosition, source, offset, null, null, length);
+	}
+
+	public HttpRequest body(byte[] content) {
+		return new HttpRequest(method, url, headers, urlParameters, output, outputPath, outputPosition, null, 0, null, content, content.length);
+	}
+
+	/**
+	 * Sends the given stream as the body.  If the length is not known, pass -1
+	 * and the body is sent using chunked transfer encoding.  The stream can only
+	 * be read once, so a request with a stream body must only be executed once.
+	 */
+	public HttpRequest body(InputStream source, long length) {
+		return new HttpRequest(method, url, headers, urlParameters, output, outputPath, outputPosition, null, 0, source, null, length);
+	}
+
+	private HttpRequest withOutput(Output newOutput, Path newOutputPath, long newOutputPosition) {
+		return new HttpRequest(method, url, headers, urlParameters, newOutput, newOutputPath, newOutputPosition, bodyPath, bodyOffset, bodyStream, bodyBytes, bodyLength);
+	}
+
+	private static Map<String, String> with(Map<String, String> map, String key, String value) {
+		Map<String, String> copy = new LinkedHashMap<>(map);
+		copy.put(key, value);
+		return Collections.unmodifiableMap(copy);
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * The URL with any URL parameters encoded and appended as the query string.
+	 */
+	public URL toURL() throws MalformedURLException {
+		if (urlParameters.isEmpty()) {
+			return new URL(url);
+		}
+
+		StringBuilder query = new StringBuilder(url);
+		char separator = url.indexOf('?') == -1 ? '?' : '&';
+		for (Map.Entry<String, String> parameter : urlParameters.entrySet()) {
+			query.append(separator).append(encode(parameter.getKey())).append('=').append(encode(parameter.getValue()));
+			separator = '&';
+		}
+		return new URL(query.toString());
+	}
+
+	private static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException("UTF-8 is not supported", e);
+		}
+	}
+
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	public Map<String, String> getUrlParameters() {
+		return urlParameters;
+	}
+
+	public Output getOutput() {
+		return output;
+	}
+
+	public Path getOutputPath() {
+		return outputPath;
+	}
+
+	/**
+	 * The position in the output file at which the body is written, or -1 if
+	 * the body replaces the file.
+	 */
+	public long getOutputPosition() {
+		return outputPosition;
+	}
+
+	public Path getBodyPath() {
+		return bodyPath;
+	}
+
+	public long getBodyOffset() {
+		return bodyOffset;
+	}
+
+	public byte[] getBodyBytes() {
+		return bodyBytes;
+	}
+
+	public InputStream getBodyStream() {
+		return bodyStream;
+	}
+
+	public long getBodyLength() {
+		return bodyLength;
+	}
+
+	/**
+	 * Whether sending this request again has the same effect as sending it
+	 * once, so that it can safely be retried after a failure whose outcome is
+	 * not known.
+	 * <p>
+	 * GET, HEAD, PUT and DELETE are idempotent.  POST is not, with one
+	 * exception: the only POST sent to Swift is a bulk delete, and deleting
+	 * the same objects a second time leaves the container as the first time
+	 * did, the objects already gone being reported as not found.  Whatever the
+	 * method, a request whose body is a stream cannot be sent twice.
+	 */
+	public boolean isIdempotent() {
+		if (bodyStream != null) {
+			return false;
+		}
+		return !"POST".equals(method) || urlParameters.containsKey("bulk-delete");
+	}
+
+	/**
+	 * Whether this request sends a body.  A PUT always does, even if it is empty.
+	 */
+	public boolean hasBody() {
+		return bodyPath != null || bodyStream != null || bodyBytes != null || method.equals("PUT");
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends {@link HttpRequest}s to the server.  An implementation is shared by
+ * all threads using a {@link HubicClient}, so it must be thread safe.
+ * <p>
+ * Whatever the implementation, the content of a successful {@link Response}
+ * is as described by the request's {@link HttpRequest.Output}, and the
+ * content of a failure response (code 400 or above) is null.
+ */
+public interface HttpTransport {
+	Response execute(HttpRequest request) throws IOException;
+
+	/**
+	 * Sends the request without waiting for the response.  The future fails
+	 * with an {@link IOException} if no response arrives.
+	 */
+	CompletableFuture<Response> executeAsync(HttpRequest request);
+}
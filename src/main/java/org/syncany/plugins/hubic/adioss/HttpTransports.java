@@ -0,0 +1,100 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Creates the {@link HttpTransport} chosen by name.  The rest of the plugin
+ * is built for Java 8, so the <code>java.net.http</code> transport is built
+ * separately, from <code>src/main/java11</code>, and only reached by
+ * reflection once the running Java is known to have
+ * <code>java.net.http</code>.
+ */
+public final class HttpTransports {
+	/**
+	 * {@link HttpAPI}, using {@link java.net.HttpURLConnection}.
+	 */
+	public static final String URL_CONNECTION = "urlconnection";
+
+	/**
+	 * <code>JavaHttpClientTransport</code>, using <code>java.net.http</code> with HTTP/2 where offered.
+	 */
+	public static final String HTTP_CLIENT = "httpclient";
+
+	private static final String HTTP_CLIENT_TRANSPORT_CLASS = "org.syncany.plugins.hubic.adioss.JavaHttpClientTransport";
+
+	private HttpTransports() {
+		// Static methods only
+	}
+
+	public static boolean isValidName(String name) {
+		return URL_CONNECTION.equals(name) || HTTP_CLIENT.equals(name);
+	}
+
+	/**
+	 * @return whether the running Java has the <code>java.net.http</code> client
+	 */
+	public static boolean isHttpClientAvailable() {
+		try {
+			Class.forName("java.net.http.HttpClient");
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the named transport, or {@link HttpAPI} if the
+	 *         <code>java.net.http</code> client was asked for but the running
+	 *         Java does not have it
+	 */
+	public static HttpTransport create(String name) {
+		return create(name, false);
+	}
+
+	/**
+	 * @param virtualThreads whether {@link HttpAPI} should send each
+	 *        asynchronous request on a virtual thread of its own, where the
+	 *        running Java has them, rather than from a bounded pool
+	 */
+	public static HttpTransport create(String name, boolean virtualThreads) {
+		if (HTTP_CLIENT.equals(name) && isHttpClientAvailable()) {
+			HttpTransport transport = newHttpClientTransport();
+			if (transport != null) {
+				return transport;
+			}
+		}
+		ExecutorService asyncExecutor = virtualThreads ? VirtualThreads.newThreadPerTaskExecutor("hubic-http-") : null;
+		return asyncExecutor != null ? new HttpAPI(asyncExecutor) : new HttpAPI();
+	}
+
+	/**
+	 * @return the <code>java.net.http</code> transport, or null if it was
+	 *         left out of the build
+	 */
+	private static HttpTransport newHttpClientTransport() {
+		try {
+			return (HttpTransport) Class.forName(HTTP_CLIENT_TRANSPORT_CLASS).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+}
@@ -22,13 +22,65 @@ package org.syncany.plugins.hubic.adioss;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.SocketTimeoutException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.syncany.api.transfer.StorageException;
+import org.syncany.plugins.hubic.adioss.ClientMetrics.Operation;
 
 public class HubicClient {
 
-	private final HttpAPI httpAPI = new HttpAPI();
+	/**
+	 * The container holding the segments of large objects, kept apart so that
+	 * segments never show up in directory listings.
+	 */
+	public static final String SEGMENTS_CONTAINER = "default_segments";
+
+	/**
+	 * Files up to this size are hashed before they are uploaded, which reads
+	 * them a second time but from the disk cache, so that the server rejects
+	 * a corrupted body.  Larger files are only hashed while they are sent,
+	 * and checked against the ETag that the server returns.
+	 */
+	private static final long MAX_PREHASHED_FILE_SIZE = 256 * 1024;
+
+	/**
+	 * Starts retries when their delay is up.  The retries themselves run
+	 * asynchronously, so one thread is enough for every client.
+	 */
+	private static final ScheduledExecutorService RETRY_SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "hubic-retry");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Thread safe, so shared by all threads using this client.
+	 */
+	private final HttpTransport httpTransport;
+
+	private final RetryPolicy retryPolicy;
+
+	private final ConcurrencyLimiter concurrencyLimiter;
+
+	private final ClientMetrics metrics;
+
+	private final AtomicLong attemptCount = new AtomicLong();
+	private final AtomicLong retryCount = new AtomicLong();
+	private final AtomicLong exhaustedCount = new AtomicLong();
+	private final AtomicLong corruptCount = new AtomicLong();
 
 	private final String token;
 
@@ -36,8 +88,286 @@ public class HubicClient {
 
 
     public HubicClient(String endpoint, String token) {
+		this(endpoint, token, RetryPolicy.DEFAULT);
+	}
+
+    public HubicClient(String endpoint, String token, RetryPolicy retryPolicy) {
+		this(endpoint, token, retryPolicy, ConcurrencyLimiter.unlimited());
+	}
+
+    public HubicClient(String endpoint, String token, RetryPolicy retryPolicy, ConcurrencyLimiter concurrencyLimiter) {
+		this(endpoint, token, retryPolicy, concurrencyLimiter, new HttpAPI());
+	}
+
+    public HubicClient(String endpoint, String token, RetryPolicy retryPolicy, ConcurrencyLimiter concurrencyLimiter, HttpTransport httpTransport) {
+		this(endpoint, token, retryPolicy, concurrencyLimiter, httpTransport, new ClientMetrics());
+	}
+
+    public HubicClient(String endpoint, String token, RetryPolicy retryPolicy, ConcurrencyLimiter concurrencyLimiter, HttpTransport httpTransport,
+    		ClientMetrics metrics) {
 		this.token = token;
 		this.endpoint = endpoint;
+		this.retryPolicy = retryPolicy;
+		this.concurrencyLimiter = concurrencyLimiter;
+		this.httpTransport = httpTransport;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sends a request, retrying it as the {@link RetryPolicy} allows if it is
+	 * idempotent.  Each attempt waits for the {@link ConcurrencyLimiter}, but
+	 * no thread is held while waiting, either for the limiter or between
+	 * attempts.
+	 *
+	 * @param operation what the request is counted as in the {@link ClientMetrics}
+	 * @param path the path that the request is counted as being for, or null
+	 * @return a future for the response to the last attempt, which may be a
+	 *         failure, or failing with an {@link IOException} if the last
+	 *         attempt got no response
+	 */
+	private CompletableFuture<Response> executeAsync(Operation operation, String path, HttpRequest request) {
+		int maxAttempts = request.isIdempotent() ? retryPolicy.getMaxAttempts() : 1;
+		CompletableFuture<Response> result = new CompletableFuture<>();
+		ClientMetrics.Cell cell = metrics.start(operation, path);
+		long startNanos = System.nanoTime();
+		// Counted as done when the last attempt is, rather than when the
+		// caller cancels the result, as the attempt may still be in flight
+		CompletableFuture<Response> lastAttempt = new CompletableFuture<>();
+		lastAttempt.whenComplete((response, failure) -> {
+			metrics.finish(cell, startNanos, request, response);
+			if (failure != null) {
+				result.completeExceptionally(failure);
+			} else {
+				complete(result, response);
+			}
+		});
+		attempt(request, 1, maxAttempts, result, lastAttempt);
+		return result;
+	}
+
+	/**
+	 * @param result the future given to the caller, which the caller may cancel
+	 * @param lastAttempt completed with the outcome of the last attempt, or
+	 *        cancelled if no further attempt is made because the caller
+	 *        cancelled the result
+	 */
+	private void attempt(HttpRequest request, int attempt, int maxAttempts, CompletableFuture<Response> result,
+			CompletableFuture<Response> lastAttempt) {
+		if (result.isDone()) {
+			// Cancelled by the caller
+			lastAttempt.cancel(false);
+			return;
+		}
+		attemptCount.incrementAndGet();
+
+		concurrencyLimiter.acquireAsync().thenCompose(start -> httpTransport.executeAsync(request).whenComplete((response, failure) ->
+				concurrencyLimiter.release(start, request.getMethod(), getBytesTransferred(request, response), getOutcome(response, unwrap(failure)))))
+				.whenComplete((response, failure) -> {
+					boolean corrupt = response != null && isCorrupt(request, response);
+					if (corrupt) {
+						corruptCount.incrementAndGet();
+					} else if (response != null && !retryPolicy.isRetryable(response.getCode())) {
+						lastAttempt.complete(response);
+						return;
+					} else if (response == null && !retryPolicy.isRetryable(unwrap(failure))) {
+						lastAttempt.completeExceptionally(unwrap(failure));
+						return;
+					}
+
+					long delay = attempt < maxAttempts ? retryPolicy.getDelayMillis(attempt, response) : -1;
+					if (delay < 0) {
+						if (maxAttempts > 1) {
+							exhaustedCount.incrementAndGet();
+						}
+						if (failure != null) {
+							lastAttempt.completeExceptionally(unwrap(failure));
+						} else if (corrupt) {
+							lastAttempt.completeExceptionally(new IOException(request.getMethod() + " " + request.getUrl()
+									+ " failed, the body did not match the ETag on every attempt"));
+						} else {
+							lastAttempt.complete(response);
+						}
+						return;
+					}
+
+					if (response != null) {
+						response.close();
+					}
+					retryCount.incrementAndGet();
+					RETRY_SCHEDULER.schedule(() -> attempt(request, attempt + 1, maxAttempts, result, lastAttempt), delay, TimeUnit.MILLISECONDS);
+				});
+	}
+
+	private static long getBytesTransferred(HttpRequest request, Response response) {
+		return ClientMetrics.getBytesSent(request) + (response != null ? ClientMetrics.getBytesReceived(request, response) : 0);
+	}
+
+	/**
+	 * Completes the result, unless the caller cancelled it, in which case a
+	 * streamed body is closed because nobody will read it.
+	 */
+	private static void complete(CompletableFuture<Response> result, Response response) {
+		if (!result.complete(response)) {
+			response.close();
+		}
+	}
+
+	/**
+	 * Whether the file sent or received, as hashed while it was copied,
+	 * differs from the object's ETag.  Only a whole object can be checked, and
+	 * only a plain one: the ETag of a large object is the MD5 of its
+	 * segments' ETags, and is quoted to tell it apart.
+	 */
+	private static boolean isCorrupt(HttpRequest request, Response response) {
+		if (response.getCode() == 422 && request.getHeaders().containsKey("ETag")) {
+			// The server found that the body did not match the ETag sent with it
+			return true;
+		}
+
+		String etag = response.getHeader("ETag");
+		if (response.getBodyMd5() == null || etag == null || etag.trim().startsWith("\"")
+				|| "true".equalsIgnoreCase(response.getHeader("X-Static-Large-Object"))) {
+			return false;
+		}
+
+		switch (response.getCode()) {
+		case 201:
+			break;
+		case 200:
+			if (isDropped(response)) {
+				// Dropped part way through, which is retried anyway, or resumed
+				// by the caller of a positioned download
+				return false;
+			}
+			break;
+		case 206:
+			if (!isWholeObject(response)) {
+				return false;
+			}
+			break;
+		default:
+			return false;
+		}
+		return !etag.trim().equalsIgnoreCase(response.getBodyMd5());
+	}
+
+	/**
+	 * @return whether the connection dropped before the whole body of a
+	 *         successful response was read: either nothing came of the
+	 *         body, or a positioned download wrote fewer bytes than the
+	 *         Content-Length
+	 */
+	private static boolean isDropped(Response response) {
+		if (response.getContent() == null) {
+			return true;
+		}
+		if (!(response.getContent() instanceof Long)) {
+			return false;
+		}
+		// Without a Content-Length, as for a chunked body, whatever arrived is taken as whole
+		long size = ObjectMetadata.fromResponse(response).getSize();
+		return size >= 0 && (Long) response.getContent() < size;
+	}
+
+	/**
+	 * @return whether a ranged download received the whole object, as when
+	 *         the object is no larger than the range
+	 */
+	private static boolean isWholeObject(Response response) {
+		String contentRange = response.getHeader("Content-Range");
+		if (contentRange == null || !contentRange.startsWith("bytes 0-") || !(response.getContent() instanceof Long)) {
+			return false;
+		}
+		try {
+			long last = Long.parseLong(contentRange.substring("bytes 0-".length(), contentRange.indexOf('/')).trim());
+			long size = Long.parseLong(contentRange.substring(contentRange.indexOf('/') + 1).trim());
+			return last == size - 1 && (Long) response.getContent() == size;
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Sends a request and waits for the response to the last attempt, as
+	 * {@link #executeAsync} does without waiting.
+	 */
+	private Response execute(Operation operation, String path, HttpRequest request) throws IOException {
+		return await(executeAsync(operation, path, request));
+	}
+
+	/**
+	 * Waits for a response from one of the asynchronous methods, for callers
+	 * that need the result before going on.
+	 *
+	 * @throws IOException if no response arrived
+	 */
+	public static Response await(CompletableFuture<Response> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(false);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a response");
+		} catch (ExecutionException e) {
+			Throwable cause = unwrap(e.getCause());
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException("Request failed", cause);
+		}
+	}
+
+	private static Throwable unwrap(Throwable failure) {
+		return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+	}
+
+	private static ConcurrencyLimiter.Outcome getOutcome(Response response, Throwable failure) {
+		if (response != null) {
+			return response.getCode() == 429 || response.getCode() == 503 ? ConcurrencyLimiter.Outcome.OVERLOADED
+					: ConcurrencyLimiter.Outcome.SUCCESS;
+		}
+		return failure instanceof SocketTimeoutException ? ConcurrencyLimiter.Outcome.OVERLOADED : ConcurrencyLimiter.Outcome.FAILED;
+	}
+
+	public ConcurrencyLimiter getConcurrencyLimiter() {
+		return concurrencyLimiter;
+	}
+
+	/**
+	 * @return the number of requests sent, counting every attempt
+	 */
+	public long getAttemptCount() {
+		return attemptCount.get();
+	}
+
+	/**
+	 * @return the number of attempts that were retries of a failed request
+	 */
+	public long getRetryCount() {
+		return retryCount.get();
+	}
+
+	/**
+	 * @return the number of retryable requests that still failed when the
+	 *         retry policy gave up on them
+	 */
+	public long getExhaustedCount() {
+		return exhaustedCount.get();
+	}
+
+	/**
+	 * @return the requests sent so far, by operation and file type
+	 */
+	public ClientMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return the number of attempts whose file, sent or received, did not
+	 *         match the object's ETag
+	 */
+	public long getCorruptCount() {
+		return corruptCount.get();
 	}
 
     /**
@@ -48,10 +378,52 @@ public class HubicClient {
      * @throws StorageException 
      */
 	public Response listDirectory(String path) throws IOException {
-        return httpAPI.query(endpoint + "/default?path=" + path + "&format=json")
+        return execute(Operation.LIST, path, HttpRequest.get(endpoint + "/default")
+        		.urlParameter("path", path)
+        		.urlParameter("format", "json")
         		.jsonArray()
-                .header("X-Auth-Token", token)
-        		.get();
+                .header("X-Auth-Token", token));
+	}
+
+    /**
+     * curl -H "X-Auth-Token: YOUR_AUTH_TOKEN" ENDPOINT_URL/default -i -X HEAD
+     *
+     * @return a {@link Response} whose headers hold the container's {@link ContainerStats}
+     */
+	public Response headContainer() throws IOException {
+		return execute(Operation.HEAD, null, HttpRequest.head(endpoint + "/default")
+				.header("X-Auth-Token", token));
+	}
+
+    /**
+     * curl -H "X-Auth-Token: YOUR_AUTH_TOKEN" "ENDPOINT_URL/default?path=multichunks/&format=json&limit=1000&marker=multichunks/abc" -i -X GET
+     *
+     * Fetches one page of a directory listing.  The server returns at most
+     * <code>limit</code> entries, starting after <code>marker</code>.
+     *
+     * @param path of the directory
+     * @param marker the name of the last entry of the previous page, or null for the first page
+     * @param limit the maximum number of entries to return
+     * @return a {@link Response} whose content is a list of {@link ListingEntry}
+     */
+	public Response listDirectory(String path, String marker, int limit) throws IOException {
+		return await(listDirectoryAsync(path, marker, limit));
+	}
+
+	/**
+	 * Like {@link #listDirectory(String, String, int)}, without waiting for the response.
+	 */
+	public CompletableFuture<Response> listDirectoryAsync(String path, String marker, int limit) {
+		HttpRequest request = HttpRequest.get(endpoint + "/default")
+				.urlParameter("path", path)
+				.urlParameter("format", "json")
+				.urlParameter("limit", Integer.toString(limit))
+				.listing()
+				.header("X-Auth-Token", token);
+		if (marker != null) {
+			request = request.urlParameter("marker", marker);
+		}
+		return executeAsync(Operation.LIST, path, request);
 	}
 
 	/**
@@ -62,13 +434,19 @@ public class HubicClient {
 	 * @throws IOException 
      */
     public Response createDirectory(String path) throws IOException {
-        return httpAPI.query(endpoint + "/default/" + path)
-                .header("X-Auth-Token", token)
-                .header("Content-Length", "0")
-                .header("Content-Type", "application/directory")
-                .put();
+        return await(createDirectoryAsync(path));
     }
 
+	/**
+	 * Like {@link #createDirectory(String)}, without waiting for the response.
+	 */
+	public CompletableFuture<Response> createDirectoryAsync(String path) {
+		return executeAsync(Operation.CREATE_DIRECTORY, path, HttpRequest.put(endpoint + "/default/" + path)
+				.header("X-Auth-Token", token)
+				.header("Content-Length", "0")
+				.header("Content-Type", "application/directory"));
+	}
+
     /**
      * curl -H "X-Auth-Token: YOUR_AUTH_TOKEN" -T "/home/adio/Bureau/README.md" ENDPOINT_URL/default/titi/README.md -i -X PUT
      *
@@ -77,9 +455,163 @@ public class HubicClient {
      * @return a {@link Response}
      */
 	public Response upload(InputStream source, String targetPath) throws IOException {
-		return httpAPI.query(endpoint + "/default/" + targetPath)
+		return await(uploadAsync(source, targetPath));
+	}
+
+	/**
+	 * Like {@link #upload(InputStream, String)}, without waiting for the response.
+	 */
+	public CompletableFuture<Response> uploadAsync(InputStream source, String targetPath) {
+		return executeAsync(Operation.UPLOAD, targetPath, HttpRequest.put(endpoint + "/default/" + targetPath)
+				.header("X-Auth-Token", token)
+				.body(source, -1));
+	}
+
+    /**
+     * Uploads a local file, streaming it with its known length so the file
+     * is never held in memory.
+     *
+     * @param source     the local file to upload
+     * @param targetPath target path
+     * @return a {@link Response}
+     */
+	public Response upload(File source, String targetPath) throws IOException {
+		return await(uploadAsync(source, targetPath));
+	}
+
+	/**
+	 * Like {@link #upload(File, String)}, without waiting for the response.
+	 */
+	public CompletableFuture<Response> uploadAsync(File source, String targetPath) {
+		HttpRequest request = HttpRequest.put(endpoint + "/default/" + targetPath)
+				.header("X-Auth-Token", token)
+				.body(source.toPath());
+		if (request.getBodyLength() <= MAX_PREHASHED_FILE_SIZE) {
+			try {
+				request = request.header("ETag", Checksums.md5Hex(source.toPath()));
+			} catch (IOException e) {
+				// Fails again when sent
+			}
+		}
+		return executeAsync(Operation.UPLOAD, targetPath, request);
+	}
+
+    /**
+     * curl -H "X-Auth-Token: YOUR_AUTH_TOKEN" ENDPOINT_URL/default_segments -i -X PUT
+     *
+     * Creates the container holding the segments of large objects, if it does not already exist.
+     *
+     * @return a {@link Response}, with code 201 if created or 202 if it already existed
+     */
+	public Response createSegmentsContainer() throws IOException {
+		return execute(Operation.CREATE_DIRECTORY, null, HttpRequest.put(endpoint + "/" + SEGMENTS_CONTAINER)
+				.header("X-Auth-Token", token));
+	}
+
+    /**
+     * curl -H "X-Auth-Token: YOUR_AUTH_TOKEN" --data-binary @segment ENDPOINT_URL/default_segments/titi/README.md/1234/00000001 -i -X PUT
+     *
+     * Uploads part of a local file as one segment of a large object.
+     *
+     * @param source      the local file
+     * @param offset      the position in the file where the segment starts
+     * @param length      the size of the segment
+     * @param segmentPath the path of the segment within the segments container
+     * @return a {@link Response}, whose ETag header is needed for the manifest
+     */
+	public Response uploadSegment(File source, long offset, long length, String segmentPath) throws IOException {
+		return execute(Operation.UPLOAD, segmentPath, HttpRequest.put(endpoint + "/" + SEGMENTS_CONTAINER + "/" + segmentPath)
+				.header("X-Auth-Token", token)
+				.body(source.toPath(), offset, length));
+	}
+
+    /**
+     * curl -H "X-Auth-Token: YOUR_AUTH_TOKEN" --data-binary @manifest.json "ENDPOINT_URL/default/titi/README.md?multipart-manifest=put" -i -X PUT
+     *
+     * Creates a static large object from segments that have already been uploaded.
+     *
+     * @param targetPath the path of the large object
+     * @param manifest   the JSON list of segments, each with path, etag and size_bytes
+     * @return a {@link Response}
+     */
+	public Response uploadManifest(String targetPath, String manifest) throws IOException {
+		return execute(Operation.UPLOAD, targetPath, HttpRequest.put(endpoint + "/default/" + targetPath)
+				.urlParameter("multipart-manifest", "put")
+				.header("X-Auth-Token", token)
+				.header("Content-Type", "application/json")
+				.body(manifest.getBytes(StandardCharsets.UTF_8)));
+	}
+
+    /**
+     * curl -H "X-Auth-Token: YOUR_AUTH_TOKEN" -H "Content-Length: 0" -H "X-Copy-From: default/temporary/big" "ENDPOINT_URL/default/databases/big?multipart-manifest=get" -i -X PUT
+     *
+     * Copies the manifest of a static large object, so that the copy refers
+     * to the same segments rather than copying their data.
+     *
+     * @return a {@link Response}
+     */
+	public Response copyManifest(String sourcePath, String targetPath) throws IOException {
+		return await(copyManifestAsync(sourcePath, targetPath));
+	}
+
+	/**
+	 * Like {@link #copyManifest(String, String)}, without waiting for the response.
+	 */
+	public CompletableFuture<Response> copyManifestAsync(String sourcePath, String targetPath) {
+		return executeAsync(Operation.COPY, targetPath, HttpRequest.put(endpoint + "/default/" + targetPath)
+				.urlParameter("multipart-manifest", "get")
 				.header("X-Auth-Token", token)
-				.put(source);
+				.header("X-Copy-From", "default/" + sourcePath)
+				.header("Content-Length", "0"));
+	}
+
+    /**
+     * curl -H "X-Auth-Token: YOUR_AUTH_TOKEN" "ENDPOINT_URL/default/titi/README.md?multipart-manifest=delete" -i -X DELETE
+     *
+     * Deletes a static large object together with its segments.
+     *
+     * @return a {@link Response}
+     */
+	public Response deleteLargeObject(String path) throws IOException {
+		return await(deleteLargeObjectAsync(path));
+	}
+
+	/**
+	 * Like {@link #deleteLargeObject(String)}, without waiting for the response.
+	 */
+	public CompletableFuture<Response> deleteLargeObjectAsync(String path) {
+		return executeAsync(Operation.DELETE, path, HttpRequest.delete(endpoint + "/default/" + path)
+				.urlParameter("multipart-manifest", "delete")
+				.header("X-Auth-Token", token));
+	}
+
+    /**
+     * curl -H "X-Auth-Token: YOUR_AUTH_TOKEN" ENDPOINT_URL/default_segments/titi/README.md/1234/00000001 -i -X DELETE
+     *
+     * @return a {@link Response}
+     */
+	public Response deleteSegment(String segmentPath) throws IOException {
+		return execute(Operation.DELETE, segmentPath, HttpRequest.delete(endpoint + "/" + SEGMENTS_CONTAINER + "/" + segmentPath)
+				.header("X-Auth-Token", token));
+	}
+
+    /**
+     * curl -H "X-Auth-Token: YOUR_AUTH_TOKEN" ENDPOINT_URL/default/titi/README.md -i -X HEAD
+     *
+     * @param path of the element
+     * @return a {@link Response}, with code 404 if the element does not exist,
+     *         otherwise with headers from which {@link ObjectMetadata#fromResponse} gets the metadata
+     */
+	public Response head(String path) throws IOException {
+		return await(headAsync(path));
+	}
+
+	/**
+	 * Like {@link #head(String)}, without waiting for the response.
+	 */
+	public CompletableFuture<Response> headAsync(String path) {
+		return executeAsync(Operation.HEAD, path, HttpRequest.head(endpoint + "/default/" + path)
+				.header("X-Auth-Token", token));
 	}
 
     /**
@@ -89,9 +621,98 @@ public class HubicClient {
      * @return a {@link Response}
      */
 	public Response delete(String path) throws IOException {
-		return httpAPI.query(endpoint + "/default/" + path)
+		return await(deleteAsync(path));
+	}
+
+	/**
+	 * Like {@link #delete(String)}, without waiting for the response.
+	 */
+	public CompletableFuture<Response> deleteAsync(String path) {
+		return executeAsync(Operation.DELETE, path, HttpRequest.delete(endpoint + "/default/" + path)
+				.header("X-Auth-Token", token));
+	}
+
+    /**
+     * curl -H "X-Auth-Token: YOUR_AUTH_TOKEN" -H "Accept: application/json" --data-binary @files.tar "ENDPOINT_URL/default?extract-archive=tar" -i -X PUT
+     *
+     * Uploads many files in one request, as a tar archive that the Swift bulk
+     * middleware extracts into one object for each file.  A server without
+     * the middleware takes this as a container PUT and answers 202 without
+     * creating anything.
+     *
+     * @param archive a tar archive whose entries are paths of objects
+     * @return a {@link Response} whose content is the text of a JSON object
+     *         giving the "Number Files Created", the overall "Response
+     *         Status" and the "Errors", each a pair of the path of an object
+     *         (ending with its {@link #bulkPath}) and its status
+     */
+	public Response uploadArchive(byte[] archive) throws IOException {
+		return await(uploadArchiveAsync(archive));
+	}
+
+	/**
+	 * Like {@link #uploadArchive(byte[])}, without waiting for the response.
+	 */
+	public CompletableFuture<Response> uploadArchiveAsync(byte[] archive) {
+		return executeAsync(Operation.UPLOAD, null, HttpRequest.put(endpoint + "/default")
+				.urlParameter("extract-archive", "tar")
+				.plain()
 				.header("X-Auth-Token", token)
-				.delete();
+				.header("Accept", "application/json")
+				.header("Content-Type", "application/x-tar")
+				.body(archive));
+	}
+
+    /**
+     * curl -H "X-Auth-Token: YOUR_AUTH_TOKEN" -H "Accept: application/json" -H "Content-Type: text/plain" --data-binary @paths.txt "ENDPOINT_URL?bulk-delete" -i -X POST
+     *
+     * Deletes many objects in one request, through the Swift bulk delete
+     * middleware.  A server without the middleware takes this as an account
+     * POST and answers 204 without deleting anything.
+     *
+     * @param paths the paths of the objects to delete
+     * @return a {@link Response} whose content is the text of a JSON object giving the
+     *         "Number Deleted", the "Number Not Found", the overall "Response
+     *         Status" and the "Errors", each a pair of the path as sent (see
+     *         {@link #bulkPath}) and its status
+     */
+	public Response bulkDelete(Collection<String> paths) throws IOException {
+		return await(bulkDeleteAsync(paths));
+	}
+
+	/**
+	 * Like {@link #bulkDelete(Collection)}, without waiting for the response.
+	 */
+	public CompletableFuture<Response> bulkDeleteAsync(Collection<String> paths) {
+		StringBuilder body = new StringBuilder();
+		for (String path : paths) {
+			body.append(bulkPath(path)).append('\n');
+		}
+		// Counted by the first path, as the paths of a batch are nearly always of one type
+		return executeAsync(Operation.DELETE, paths.isEmpty() ? null : paths.iterator().next(), HttpRequest.post(endpoint)
+				.plain()
+				.urlParameter("bulk-delete", "true")
+				.header("X-Auth-Token", token)
+				.header("Accept", "application/json")
+				.header("Content-Type", "text/plain")
+				.body(body.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * @return the path as it is sent in a bulk delete, and as it ends the
+	 *         paths reported in the errors of bulk deletes and archive
+	 *         uploads: the container and the URL-encoded object path
+	 */
+	public static String bulkPath(String path) {
+		StringBuilder encoded = new StringBuilder("/default");
+		for (String segment : path.split("/", -1)) {
+			try {
+				encoded.append('/').append(URLEncoder.encode(segment, StandardCharsets.UTF_8.name()).replace("+", "%20"));
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException("UTF-8 is not supported", e);
+			}
+		}
+		return encoded.toString();
 	}
 
     /**
@@ -102,10 +723,78 @@ public class HubicClient {
      * @return a {@link Response}
      */
 	public Response download(String source, File localFile) throws IOException {
-		return httpAPI.query(endpoint + "/default/" + source)
+		return await(downloadAsync(source, localFile));
+	}
+
+	/**
+	 * Like {@link #download(String, File)}, without waiting for the response.
+	 */
+	public CompletableFuture<Response> downloadAsync(String source, File localFile) {
+		return executeAsync(Operation.DOWNLOAD, source, HttpRequest.get(endpoint + "/default/" + source)
+				.binary(localFile.toPath())
+				.header("X-Auth-Token", token));
+	}
+
+	/**
+	 * Opens an object for reading as a stream, without writing it to a file.
+	 *
+	 * @param source of the element to read
+	 * @return a {@link Response} whose {@link Response#getBody() body} is left
+	 *         unread, and is the error page of a failure, which must be closed
+	 */
+	public Response open(String source) throws IOException {
+		return await(openAsync(source));
+	}
+
+	/**
+	 * Like {@link #open(String)}, without waiting for the response.
+	 */
+	public CompletableFuture<Response> openAsync(String source) {
+		return executeAsync(Operation.DOWNLOAD, source, HttpRequest.get(endpoint + "/default/" + source)
+				.stream()
+				.header("X-Auth-Token", token));
+	}
+
+    /**
+     * curl -H "X-Auth-Token: YOUR_AUTH_TOKEN" -H "If-None-Match: ETAG" ENDPOINT_URL/default/Documents/zap.sh -i -X GET
+     *
+     * Downloads an object unless it still has the given ETag.
+     *
+     * @param source of the element to download
+     * @param localFile the file to write the object into, which is left alone if the object is unchanged
+     * @param etag the ETag of the copy already held
+     * @return a {@link Response} with code 304 if the object is unchanged, or 200 if it was downloaded
+     */
+	public Response downloadIfNoneMatch(String source, File localFile, String etag) throws IOException {
+		return execute(Operation.DOWNLOAD, source, HttpRequest.get(endpoint + "/default/" + source)
 				.binary(localFile.toPath())
 				.header("X-Auth-Token", token)
-				.get();
+				.header("If-None-Match", "\"" + etag + "\""));
+	}
+
+    /**
+     * curl -H "X-Auth-Token: YOUR_AUTH_TOKEN" -H "Range: bytes=0-1023" -H "If-Match: ETAG" ENDPOINT_URL/default/Documents/zap.sh -i -X GET
+     *
+     * Downloads part of an object into a local file at the same offset.
+     *
+     * @param source of the element to download
+     * @param localFile the file to write into, which is not truncated
+     * @param first     the first byte to download
+     * @param last      the last byte to download, inclusive
+     * @param etag      the expected ETag of the object, so that parts of different versions are never
+     *                  mixed, or null if not yet known
+     * @return a {@link Response} with code 206 on success, whose content is the
+     *         number of bytes written, even if the connection dropped part way through
+     */
+	public Response downloadRange(String source, File localFile, long first, long last, String etag) throws IOException {
+		HttpRequest request = HttpRequest.get(endpoint + "/default/" + source)
+				.binary(localFile.toPath(), first)
+				.range(first, last)
+				.header("X-Auth-Token", token);
+		if (etag != null) {
+			request = request.header("If-Match", "\"" + etag + "\"");
+		}
+		return execute(Operation.DOWNLOAD, source, request);
 	}
 
 	/**
@@ -117,10 +806,16 @@ public class HubicClient {
      * @throws IOException 
      */
     public Response copy(String sourcePath, String targetPath) throws IOException {
-        return httpAPI.query(endpoint + "/default/" + targetPath)
+		return await(copyAsync(sourcePath, targetPath));
+	}
+
+	/**
+	 * Like {@link #copy(String, String)}, without waiting for the response.
+	 */
+	public CompletableFuture<Response> copyAsync(String sourcePath, String targetPath) {
+        return executeAsync(Operation.COPY, targetPath, HttpRequest.put(endpoint + "/default/" + targetPath)
                 .header("X-Auth-Token", token)
                 .header("X-Copy-From", "default/" + sourcePath)
-                .header("Content-Length", "0")
-                .put();
-    }
+                .header("Content-Length", "0"));
+	}
 }
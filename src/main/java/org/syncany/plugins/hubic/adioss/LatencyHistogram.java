@@ -0,0 +1,111 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in microseconds, recorded without locks or
+ * allocation, from any number of threads.
+ * <p>
+ * The buckets are laid out as in an HDR histogram: values below 16 each have
+ * a bucket of their own, and above that every power of two is split into 8
+ * buckets, so that a value is counted within 1/8 of its size however large
+ * it is.  Latencies from a microsecond to a day fit in a few hundred
+ * buckets.
+ */
+final class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+
+	/**
+	 * Longer latencies, of more than a day, are counted as this.
+	 */
+	static final long MAX_VALUE = (1L << 37) - 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(bucketIndex(MAX_VALUE) + 1);
+
+	void record(long micros) {
+		counts.incrementAndGet(bucketIndex(Math.max(0, Math.min(micros, MAX_VALUE))));
+	}
+
+	/**
+	 * @return the number of values recorded
+	 */
+	long getCount() {
+		long count = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the largest value counted in the bucket that holds the given
+	 *         percentile, which is at most 1/8 more than the value itself, or
+	 *         0 if nothing was recorded
+	 */
+	long getPercentile(double percentile) {
+		long[] snapshot = new long[counts.length()];
+		long total = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return highestValue(i);
+			}
+		}
+		return MAX_VALUE;
+	}
+
+	/**
+	 * @return the bucket of a value from 0 to {@link #MAX_VALUE}
+	 */
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+		return SUB_BUCKET_HALF * shift + (int) (value >>> shift);
+	}
+
+	/**
+	 * @return the largest value counted in the given bucket
+	 */
+	static long highestValue(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = index / SUB_BUCKET_HALF - 1;
+		long lowest = (long) (index - SUB_BUCKET_HALF * shift) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Decodes a Swift JSON container listing straight from the response stream,
+ * keeping only the fields in {@link ListingEntry}.  Neither the response text
+ * nor a JSON tree is ever held in memory.
+ */
+public class ListingDecoder {
+
+	public static List<ListingEntry> decode(InputStream inputStream) throws IOException {
+		return decode(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+	}
+
+	public static List<ListingEntry> decode(Reader reader) throws IOException {
+		List<ListingEntry> entries = new ArrayList<>();
+
+		try (JsonReader jsonReader = new JsonReader(reader)) {
+			jsonReader.beginArray();
+			while (jsonReader.hasNext()) {
+				entries.add(decodeEntry(jsonReader));
+			}
+			jsonReader.endArray();
+		}
+
+		return entries;
+	}
+
+	private static ListingEntry decodeEntry(JsonReader jsonReader) throws IOException {
+		String name = null;
+		String contentType = null;
+
+		jsonReader.beginObject();
+		while (jsonReader.hasNext()) {
+			switch (jsonReader.nextName()) {
+			case "name":
+				name = jsonReader.nextString();
+				break;
+			case "content_type":
+				contentType = jsonReader.nextString();
+				break;
+			default:
+				jsonReader.skipValue();
+			}
+		}
+		jsonReader.endObject();
+
+		if (name == null) {
+			throw new IOException("Listing entry without a name");
+		}
+		return new ListingEntry(name, contentType);
+	}
+}
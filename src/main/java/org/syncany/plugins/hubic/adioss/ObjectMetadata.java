@@ -0,0 +1,97 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * The metadata of an object, as returned in the headers of a HEAD request.
+ */
+public class ObjectMetadata {
+	private final long size;
+	private final String etag;
+	private final long lastModified;
+
+	public ObjectMetadata(long size, String etag, long lastModified) {
+		this.size = size;
+		this.etag = etag;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * @param response a successful response to a HEAD or GET of an object
+	 */
+	public static ObjectMetadata fromResponse(Response response) {
+		return new ObjectMetadata(parseSize(response.getHeader("Content-Length")), parseEtag(response.getHeader("ETag")),
+				parseLastModified(response.getHeader("Last-Modified")));
+	}
+
+	private static long parseSize(String contentLength) {
+		try {
+			return contentLength != null ? Long.parseLong(contentLength.trim()) : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static String parseEtag(String etag) {
+		if (etag == null) {
+			return null;
+		}
+		// The ETag of a large object manifest is quoted
+		etag = etag.trim();
+		if (etag.length() >= 2 && etag.startsWith("\"") && etag.endsWith("\"")) {
+			etag = etag.substring(1, etag.length() - 1);
+		}
+		return etag;
+	}
+
+	private static long parseLastModified(String lastModified) {
+		try {
+			return lastModified != null ? ZonedDateTime.parse(lastModified.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli() : -1;
+		} catch (DateTimeParseException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return the size in bytes, or -1 if not known
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the ETag without any quotes, which for an ordinary object is the
+	 *         hex MD5 of its content, or null if not known
+	 */
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * @return the last modification time in milliseconds since the epoch, or -1 if not known
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+}
@@ -19,19 +19,30 @@
  */
 package org.syncany.plugins.hubic.adioss;
 
+import java.io.Closeable;
 import java.util.List;
 import java.util.Map;
 
 
-public class Response {
+public class Response implements Closeable {
     private final int code;
     private final Map<String, List<String>> headers;
     private final Object content;
+    private final String bodyMd5;
 
     public Response(int code, Map<String, List<String>> headers, Object content) {
+        this(code, headers, content, null);
+    }
+
+    /**
+     * @param bodyMd5 the hex MD5 of the file sent as the request body, or of
+     *        the response body written to a file, hashed as it was copied
+     */
+    public Response(int code, Map<String, List<String>> headers, Object content, String bodyMd5) {
         this.code = code;
         this.headers = headers;
         this.content = content;
+        this.bodyMd5 = bodyMd5;
     }
 
     public int getCode() {
@@ -42,7 +53,49 @@ public class Response {
         return headers;
     }
 
+    /**
+     * @return the first value of the given header, matching its name case-insensitively,
+     *         or null if the response does not have the header
+     */
+    public String getHeader(String name) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
     public Object getContent() {
         return content;
     }
+
+    /**
+     * @return the unread body of a response to a {@link HttpRequest#stream()}
+     *         request, or null for any other request
+     */
+    public ResponseBody getBody() {
+        return content instanceof ResponseBody ? (ResponseBody) content : null;
+    }
+
+    /**
+     * Closes the body of a streamed response, which must be done once it is
+     * no longer wanted, whether or not it was read.  Does nothing for other
+     * responses, whose body was read before they were returned.
+     */
+    @Override
+    public void close() {
+        ResponseBody body = getBody();
+        if (body != null) {
+            body.close();
+        }
+    }
+
+    /**
+     * @return the hex MD5 of the file sent, or of the body written to a file,
+     *         or null if the request did neither
+     */
+    public String getBodyMd5() {
+        return bodyMd5;
+    }
 }
@@ -0,0 +1,148 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * The unread body of a response to a {@link HttpRequest#stream()} request,
+ * whether it succeeded or failed.  Nothing is read until the body is asked
+ * for, and then only as much as the caller reads.
+ * <p>
+ * The body can be read only once, either as a stream or through one of the
+ * typed accessors, which close it when done.  A body that is not read must
+ * still be closed.  A short one, such as an error page, is then read to the
+ * end so that the connection can be reused, while the connection of a long
+ * one is dropped rather than downloading what nobody wants.
+ */
+public class ResponseBody implements Closeable {
+	private final InputStream inputStream;
+
+	/**
+	 * Set once the body is handed out or closed.  Not a lock, so that a
+	 * virtual thread draining the body on close is never pinned to its
+	 * carrier.
+	 */
+	private final AtomicBoolean consumed = new AtomicBoolean();
+
+	/**
+	 * @param inputStream the body, or null if the response has none
+	 */
+	ResponseBody(InputStream inputStream) {
+		this.inputStream = inputStream != null ? inputStream : new ByteArrayInputStream(new byte[0]);
+	}
+
+	/**
+	 * @return the body as it arrives, which the caller must close
+	 */
+	public InputStream getStream() {
+		if (!consumed.compareAndSet(false, true)) {
+			throw new IllegalStateException("The response body has already been read");
+		}
+		return inputStream;
+	}
+
+	/**
+	 * @return the whole body decoded as UTF-8
+	 */
+	public String asText() throws IOException {
+		try (InputStream stream = getStream()) {
+			return ResponseReader.readText(stream);
+		}
+	}
+
+	public JsonElement asJson() throws IOException {
+		String text = asText();
+		try {
+			return new JsonParser().parse(text);
+		} catch (JsonParseException e) {
+			throw new IOException("The response body is not JSON", e);
+		}
+	}
+
+	/**
+	 * @return the entries of a JSON directory listing, decoded as they arrive
+	 *         without holding the listing in memory as text
+	 */
+	public List<ListingEntry> asListing() throws IOException {
+		try (InputStream stream = getStream()) {
+			return ListingDecoder.decode(stream);
+		}
+	}
+
+	/**
+	 * Writes the body into a file, replacing anything already there.
+	 */
+	public void writeTo(Path path) throws IOException {
+		try (InputStream stream = getStream();
+				OutputStream outputStream = Files.newOutputStream(path)) {
+			ResponseReader.copy(stream, outputStream);
+		}
+	}
+
+	/**
+	 * Closes the body, whether or not it was read.  Closing it again does
+	 * nothing.
+	 */
+	@Override
+	public void close() {
+		if (consumed.compareAndSet(false, true)) {
+			drain();
+		}
+		try {
+			inputStream.close();
+		} catch (IOException e) {
+			// The connection is dropped rather than kept alive
+		}
+	}
+
+	/**
+	 * Reads what fits in one buffer of an unread body, which for a body no
+	 * longer than that leaves the connection ready for the next request.
+	 */
+	private void drain() {
+		ByteBuffer buffer = BufferPool.SHARED.acquire();
+		try {
+			byte[] array = buffer.array();
+			int length = 0;
+			int bytesRead;
+			while (length < array.length && (bytesRead = inputStream.read(array, length, array.length - length)) != -1) {
+				length += bytesRead;
+			}
+		} catch (IOException e) {
+			// Closed below anyway
+		} finally {
+			BufferPool.SHARED.release(buffer);
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+
+import com.google.gson.JsonParser;
+
+/**
+ * Turns the body of a response into the content asked for by the request's
+ * {@link HttpRequest.Output}, the same way for every {@link HttpTransport}.
+ * The body is always read to the end and closed, so that the connection can
+ * be reused, except for a {@link HttpRequest.Output#STREAM} request, whose
+ * transport hands the body over unread in a {@link ResponseBody}.
+ */
+final class ResponseReader {
+	interface Body {
+		InputStream open() throws IOException;
+	}
+
+	private ResponseReader() {
+		// Static methods only
+	}
+
+	/**
+	 * @return whether a response with this code carries content for the
+	 *         request, rather than an error page or, for a 304, nothing at
+	 *         all, which must not overwrite the request's output file
+	 */
+	static boolean hasContent(int code) {
+		return code < 400 && code != 304;
+	}
+
+	/**
+	 * @param digest hashes the bytes written to the request's output file, if
+	 *        it has one
+	 * @return the content of a successful response, or null if the connection
+	 *         dropped before the body was read (except for a positioned
+	 *         binary output, whose content is the number of bytes written)
+	 */
+	static Object read(Body body, HttpRequest request, MessageDigest digest) {
+		if (request.getOutput() == HttpRequest.Output.NONE) {
+			try {
+				discard(body.open());
+			} catch (IOException e) {
+				// The connection is closed rather than kept alive
+			}
+			return null;
+		} else if (request.getOutput() == HttpRequest.Output.BINARY && request.getOutputPosition() >= 0) {
+			return writeAt(body, request.getOutputPath(), request.getOutputPosition(), digest);
+		} else if (request.getOutput() == HttpRequest.Output.BINARY) {
+			Path outputPath = request.getOutputPath();
+			try (InputStream inputStream = body.open();
+					OutputStream outputStream = new DigestOutputStream(new FileOutputStream(outputPath.toFile()), digest)) {
+				copy(inputStream, outputStream);
+			} catch (IOException e) {
+				// The connection dropped part way through
+				return null;
+			}
+			return outputPath;
+		} else if (request.getOutput() == HttpRequest.Output.LISTING) {
+			try (InputStream inputStream = body.open()) {
+				return ListingDecoder.decode(inputStream);
+			} catch (IOException e) {
+				// The connection dropped part way through
+				return null;
+			}
+		} else {
+			try (InputStream inputStream = body.open()) {
+				return convertResult(readText(inputStream), request.getOutput());
+			} catch (IOException e) {
+				// The connection dropped part way through
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * @return the hex MD5 hashed into the digest, if the request sent a file
+	 *         or wrote its response to one, otherwise null
+	 */
+	static String getBodyMd5(HttpRequest request, MessageDigest digest) {
+		if (request.getBodyPath() == null && request.getOutput() != HttpRequest.Output.BINARY) {
+			return null;
+		}
+		return Checksums.toHex(digest.digest());
+	}
+
+	/**
+	 * Reads and discards the body of a failure response, so that the
+	 * connection can be kept alive.
+	 *
+	 * @param body the body, or null if there is none
+	 */
+	static void discard(InputStream body) {
+		if (body == null) {
+			return;
+		}
+		ByteBuffer buffer = BufferPool.SHARED.acquire();
+		try (InputStream inputStream = body) {
+			while (inputStream.read(buffer.array()) != -1) {
+				// Discarded
+			}
+		} catch (IOException e) {
+			// The connection is closed rather than kept alive
+		} finally {
+			BufferPool.SHARED.release(buffer);
+		}
+	}
+
+	/**
+	 * Writes the response body into the file at the given position.
+	 *
+	 * @return the number of bytes written, including any written before the
+	 *         connection failed
+	 */
+	private static Long writeAt(Body body, Path outputPath, long position, MessageDigest digest) {
+		long written = 0;
+		ByteBuffer buffer = BufferPool.SHARED.acquire();
+		try (InputStream inputStream = body.open();
+				FileChannel fileChannel = FileChannel.open(outputPath, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+			int bytesRead;
+			while ((bytesRead = inputStream.read(buffer.array())) != -1) {
+				// Through Buffer, so that the calls link on Java 8 too
+				((Buffer) buffer).position(0);
+				((Buffer) buffer).limit(bytesRead);
+				while (buffer.hasRemaining()) {
+					fileChannel.write(buffer, position + written + buffer.position());
+				}
+				digest.update(buffer.array(), 0, bytesRead);
+				written += bytesRead;
+			}
+		} catch (IOException e) {
+			// A dropped connection.  Whatever was written before the failure
+			// is kept, and the count tells the caller where to resume.
+		} finally {
+			BufferPool.SHARED.release(buffer);
+		}
+		return written;
+	}
+
+	static void copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+		ByteBuffer buffer = BufferPool.SHARED.acquire();
+		try {
+			int bytesRead;
+			while ((bytesRead = inputStream.read(buffer.array())) != -1) {
+				outputStream.write(buffer.array(), 0, bytesRead);
+			}
+		} finally {
+			BufferPool.SHARED.release(buffer);
+		}
+	}
+
+	/**
+	 * Reads a text body as UTF-8.  A body that fits in one buffer, as nearly
+	 * all do, is decoded straight from the buffer.
+	 */
+	static String readText(InputStream inputStream) throws IOException {
+		ByteBuffer buffer = BufferPool.SHARED.acquire();
+		try {
+			byte[] array = buffer.array();
+			int length = 0;
+			int bytesRead;
+			while (length < array.length && (bytesRead = inputStream.read(array, length, array.length - length)) != -1) {
+				length += bytesRead;
+			}
+			if (length < array.length) {
+				return new String(array, 0, length, StandardCharsets.UTF_8);
+			}
+
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream(2 * array.length);
+			outputStream.write(array, 0, length);
+			while ((bytesRead = inputStream.read(array)) != -1) {
+				outputStream.write(array, 0, bytesRead);
+			}
+			return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+		} finally {
+			BufferPool.SHARED.release(buffer);
+		}
+	}
+
+	private static Object convertResult(String response, HttpRequest.Output output) {
+		switch (output) {
+		case JSON:
+			return new JsonParser().parse(response);
+		case JSON_ARRAY:
+			return new JsonParser().parse(response).getAsJsonArray();
+		default:
+			return response;
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.FileSystemException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether and when {@link HubicClient} retries a failed request.
+ * <p>
+ * Transient I/O failures, such as timeouts and dropped connections, and the
+ * codes that Swift uses for transient problems (408, 429, 500, 502, 503 and
+ * 504) are retried.  A failure that would only happen again, such as a
+ * missing local file or a bad URL, is not.  Each retry waits a random
+ * time of up to the base delay doubled for every attempt so far, capped at
+ * the maximum delay, so that many clients failing together do not all come
+ * back at once.  If the server sends <code>Retry-After</code>, at least that
+ * long is waited, but a server that asks for longer than the maximum delay
+ * is not retried at all.
+ */
+public final class RetryPolicy {
+	public static final RetryPolicy DEFAULT = new RetryPolicy(4, 500, 30000);
+
+	/**
+	 * Sends every request once.
+	 */
+	public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+	private final int maxAttempts;
+	private final long baseDelayMillis;
+	private final long maxDelayMillis;
+
+	/**
+	 * @param maxAttempts the number of times a request is sent before giving up, including the first
+	 */
+	public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+		this.maxAttempts = maxAttempts;
+		this.baseDelayMillis = baseDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public boolean isRetryable(int code) {
+		return code == 408 || code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+	}
+
+	/**
+	 * Whether a request that failed with the given exception, rather than
+	 * with a response, is worth sending again.  Only an {@link IOException}
+	 * is, and not one caused by the local file system, a bad URL or an
+	 * interrupt.
+	 */
+	public boolean isRetryable(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof FileNotFoundException || cause instanceof FileSystemException
+					|| cause instanceof MalformedURLException || cause instanceof URISyntaxException
+					|| cause instanceof ClosedByInterruptException
+					|| (cause instanceof InterruptedIOException && !(cause instanceof SocketTimeoutException))) {
+				return false;
+			}
+		}
+		return failure instanceof IOException
+				|| (failure instanceof UncheckedIOException && failure.getCause() instanceof IOException);
+	}
+
+	/**
+	 * @param attempt the number of attempts made so far, starting at 1
+	 * @param response the failed response, or null if the request failed with an exception
+	 * @return the time to wait before the next attempt, or -1 if the server
+	 *         asked for a longer wait than this policy allows
+	 */
+	public long getDelayMillis(int attempt, Response response) {
+		long backoff = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 30));
+		long delay = backoff > 0 ? ThreadLocalRandom.current().nextLong(backoff + 1) : 0;
+
+		long retryAfter = response != null ? parseRetryAfter(response.getHeader("Retry-After")) : -1;
+		if (retryAfter > maxDelayMillis) {
+			return -1;
+		}
+		return Math.max(delay, retryAfter);
+	}
+
+	/**
+	 * @param retryAfter either a number of seconds or an HTTP date
+	 * @return the wait in milliseconds, or -1 if not given or not understood
+	 */
+	static long parseRetryAfter(String retryAfter) {
+		if (retryAfter == null) {
+			return -1;
+		}
+
+		retryAfter = retryAfter.trim();
+		try {
+			return Math.max(0, Long.parseLong(retryAfter) * 1000);
+		} catch (NumberFormatException e) {
+			// Not seconds, so should be a date
+		}
+
+		try {
+			long at = ZonedDateTime.parse(retryAfter, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+			return Math.max(0, at - System.currentTimeMillis());
+		} catch (DateTimeParseException e) {
+			return -1;
+		}
+	}
+}
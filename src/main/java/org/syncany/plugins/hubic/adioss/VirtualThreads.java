@@ -0,0 +1,84 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates executors that run each task on its own virtual thread, on Java 21
+ * and later.  The plugin is built for Java 8, so the virtual thread API is
+ * reached by reflection.
+ * <p>
+ * Code run on these threads must not block while holding a monitor, as that
+ * pins the carrier thread on Java 21, so the I/O paths use
+ * {@link java.util.concurrent.locks.ReentrantLock} rather than
+ * <code>synchronized</code>.
+ */
+public final class VirtualThreads {
+	/**
+	 * <code>Thread.ofVirtual()</code>, or null if virtual threads are missing
+	 * or, as on Java 19 and 20, a preview feature that is not enabled
+	 */
+	private static final Method OF_VIRTUAL = findOfVirtual();
+
+	private VirtualThreads() {
+		// Static methods only
+	}
+
+	/**
+	 * @return whether the running Java has virtual threads
+	 */
+	public static boolean isAvailable() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * @param namePrefix the start of the name of each thread, followed by a number
+	 * @return an executor starting a new virtual thread for each task, or null
+	 *         if the running Java does not have virtual threads
+	 */
+	public static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+		if (OF_VIRTUAL == null) {
+			return null;
+		}
+		try {
+			Object builder = OF_VIRTUAL.invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 1L);
+			ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, threadFactory);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	private static Method findOfVirtual() {
+		try {
+			Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			ofVirtual.invoke(null);
+			return ofVirtual;
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+}
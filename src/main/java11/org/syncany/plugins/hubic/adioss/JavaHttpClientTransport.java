@@ -0,0 +1,314 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sends {@link HttpRequest}s with the <code>java.net.http</code> client of
+ * Java 11 and later.  Where the server offers HTTP/2, many requests share
+ * one connection at once, which suits the many small metadata requests
+ * (deletes, copies, directory creation) made by a sync.  Requests are sent
+ * without blocking a thread while waiting for the response, and downloads to
+ * a file are written as the data arrives, without a thread waiting for it.
+ * <p>
+ * Only create this through {@link HttpTransports}, which checks that the
+ * running Java has <code>java.net.http</code>.
+ */
+public class JavaHttpClientTransport implements HttpTransport {
+	private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+
+	/**
+	 * Headers that the client sets itself and refuses to take from the caller.
+	 */
+	private static final Set<String> RESTRICTED_HEADERS = new HashSet<>(Arrays.asList("connection", "content-length", "expect", "host", "upgrade"));
+
+	private final HttpClient httpClient;
+
+	public JavaHttpClientTransport() {
+		httpClient = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.followRedirects(HttpClient.Redirect.NEVER)
+				.connectTimeout(CONNECT_TIMEOUT)
+				.build();
+	}
+
+	@Override
+	public Response execute(HttpRequest request) throws IOException {
+		try {
+			return executeAsync(request).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted during " + request.getMethod() + " " + request.getUrl());
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(request.getMethod() + " " + request.getUrl() + " failed", cause);
+		}
+	}
+
+	/**
+	 * A body downloaded to a file is written by the client as it arrives.
+	 * Other bodies, which are small, such as listings and JSON, are read by
+	 * one of the client's threads once the headers have arrived, and a body
+	 * asked for as a stream is left for the caller to read.
+	 */
+	@Override
+	public CompletableFuture<Response> executeAsync(HttpRequest request) {
+		// Files are hashed as they are copied, for checking against the ETag.
+		// The client may read a request body more than once, so the digest
+		// is started afresh for each reading.
+		AtomicReference<MessageDigest> digest = new AtomicReference<>(Checksums.newMd5());
+		java.net.http.HttpRequest httpRequest;
+		try {
+			httpRequest = toHttpRequest(request, digest);
+		} catch (IOException e) {
+			CompletableFuture<Response> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+
+		return httpClient.sendAsync(httpRequest, responseInfo -> toBodySubscriber(responseInfo.statusCode(), request, digest.get()))
+				.thenApply(httpResponse -> toResponse(httpResponse, request, digest.get()));
+	}
+
+	private static java.net.http.HttpRequest toHttpRequest(HttpRequest request, AtomicReference<MessageDigest> digest) throws IOException {
+		java.net.http.HttpRequest.Builder builder;
+		try {
+			builder = java.net.http.HttpRequest.newBuilder(request.toURL().toURI());
+		} catch (URISyntaxException e) {
+			throw new IOException("Invalid URL " + request.getUrl(), e);
+		}
+
+		for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+			if (!RESTRICTED_HEADERS.contains(header.getKey().toLowerCase())) {
+				builder.header(header.getKey(), header.getValue());
+			}
+		}
+
+		return builder.method(request.getMethod(), request.hasBody() ? toBodyPublisher(request, digest) : BodyPublishers.noBody()).build();
+	}
+
+	private static BodyPublisher toBodyPublisher(HttpRequest request, AtomicReference<MessageDigest> digest) throws IOException {
+		if (request.getBodyPath() != null) {
+			long offset = request.getBodyOffset();
+			long length = request.getBodyLength() >= 0 ? request.getBodyLength() : Files.size(request.getBodyPath()) - offset;
+			return BodyPublishers.fromPublisher(BodyPublishers.ofInputStream(() -> {
+				try {
+					FileChannel fileChannel = FileChannel.open(request.getBodyPath(), StandardOpenOption.READ);
+					fileChannel.position(offset);
+					MessageDigest fileDigest = Checksums.newMd5();
+					digest.set(fileDigest);
+					return new DigestInputStream(new LimitedInputStream(Channels.newInputStream(fileChannel), length), fileDigest);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}), length);
+		} else if (request.getBodyBytes() != null) {
+			return BodyPublishers.ofByteArray(request.getBodyBytes());
+		} else if (request.getBodyStream() != null) {
+			BodyPublisher publisher = BodyPublishers.ofInputStream(request::getBodyStream);
+			return request.getBodyLength() >= 0 ? BodyPublishers.fromPublisher(publisher, request.getBodyLength()) : publisher;
+		} else {
+			return BodyPublishers.noBody();
+		}
+	}
+
+	/**
+	 * @return a subscriber whose body is either the content of the response,
+	 *         or an input stream to be read by {@link #toResponse}
+	 */
+	private static BodySubscriber<Object> toBodySubscriber(int code, HttpRequest request, MessageDigest digest) {
+		if (request.getOutput() == HttpRequest.Output.STREAM) {
+			return BodySubscribers.mapping(BodySubscribers.ofInputStream(), inputStream -> inputStream);
+		} else if (!ResponseReader.hasContent(code) || request.getOutput() == HttpRequest.Output.NONE) {
+			return BodySubscribers.replacing(null);
+		} else if (request.getOutput() == HttpRequest.Output.BINARY) {
+			return new FileBodySubscriber(request, digest);
+		} else {
+			return BodySubscribers.mapping(BodySubscribers.ofInputStream(), inputStream -> inputStream);
+		}
+	}
+
+	private static Response toResponse(HttpResponse<Object> httpResponse, HttpRequest request, MessageDigest digest) {
+		Object content = httpResponse.body();
+		if (content instanceof InputStream) {
+			InputStream body = (InputStream) content;
+			// Reading a stream must not be done in the subscriber, where it would
+			// wait for data that only the client's threads can deliver
+			content = request.getOutput() == HttpRequest.Output.STREAM ? new ResponseBody(body) : ResponseReader.read(() -> body, request, digest);
+		}
+		return new Response(httpResponse.statusCode(), httpResponse.headers().map(), content, ResponseReader.getBodyMd5(request, digest));
+	}
+
+	/**
+	 * Writes a body to the request's output file as each part arrives, giving
+	 * the same content as {@link ResponseReader#read}: the number of bytes
+	 * written for a positioned output, even if the connection dropped,
+	 * otherwise the path, or null if the connection dropped.
+	 */
+	private static class FileBodySubscriber implements BodySubscriber<Object> {
+		private final HttpRequest request;
+		private final MessageDigest digest;
+		private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+		private Flow.Subscription subscription;
+		private FileChannel fileChannel;
+		private long written;
+
+		FileBodySubscriber(HttpRequest request, MessageDigest digest) {
+			this.request = request;
+			this.digest = digest;
+		}
+
+		@Override
+		public CompletionStage<Object> getBody() {
+			return result;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			try {
+				fileChannel = request.getOutputPosition() >= 0
+						? FileChannel.open(request.getOutputPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE)
+						: FileChannel.open(request.getOutputPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+			} catch (IOException e) {
+				subscription.cancel();
+				finish(false);
+				return;
+			}
+			subscription.request(1);
+		}
+
+		@Override
+		public void onNext(List<ByteBuffer> buffers) {
+			long start = Math.max(0, request.getOutputPosition());
+			try {
+				for (ByteBuffer buffer : buffers) {
+					digest.update(buffer.duplicate());
+					while (buffer.hasRemaining()) {
+						written += fileChannel.write(buffer, start + written);
+					}
+				}
+			} catch (IOException e) {
+				subscription.cancel();
+				finish(false);
+				return;
+			}
+			subscription.request(1);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			// A dropped connection.  Whatever was written before the failure
+			// is kept, and the count tells the caller where to resume.
+			finish(false);
+		}
+
+		@Override
+		public void onComplete() {
+			finish(true);
+		}
+
+		private void finish(boolean completed) {
+			if (fileChannel != null) {
+				try {
+					fileChannel.close();
+				} catch (IOException e) {
+					completed = false;
+				}
+			}
+			if (request.getOutputPosition() >= 0) {
+				result.complete(written);
+			} else {
+				result.complete(completed ? request.getOutputPath() : null);
+			}
+		}
+	}
+
+	/**
+	 * Ends after the given number of bytes, so that part of a file can be sent.
+	 */
+	private static class LimitedInputStream extends FilterInputStream {
+		private long remaining;
+
+		LimitedInputStream(InputStream inputStream, long length) {
+			super(inputStream);
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int b = super.read();
+			if (b != -1) {
+				remaining--;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int bytesRead = super.read(buffer, offset, (int) Math.min(length, remaining));
+			if (bytesRead > 0) {
+				remaining -= bytesRead;
+			}
+			return bytesRead;
+		}
+	}
+}
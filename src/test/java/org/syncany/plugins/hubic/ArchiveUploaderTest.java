@@ -0,0 +1,118 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.api.transfer.StorageException;
+import org.syncany.plugins.hubic.adioss.FakeSwiftServer;
+import org.syncany.plugins.hubic.adioss.HubicClient;
+import org.syncany.plugins.hubic.adioss.RetryPolicy;
+
+public class ArchiveUploaderTest {
+	private FakeSwiftServer server;
+	private ArchiveUploader archiveUploader;
+	private final List<File> localFiles = new ArrayList<>();
+
+	@Before
+	public void setUp() throws Exception {
+		server = new FakeSwiftServer();
+		server.start();
+		archiveUploader = new ArchiveUploader(new HubicClient(server.getEndpoint(), "test-token", new RetryPolicy(3, 1, 10)), 10);
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		for (File localFile : localFiles) {
+			localFile.delete();
+		}
+	}
+
+	@Test
+	public void testUploadsInArchives() throws Exception {
+		Map<String, File> files = createFiles("actions/action-", 25);
+
+		assertTrue(archiveUploader.uploadAll(files).isEmpty());
+		assertEquals(3, server.getArchiveCount());
+		assertEquals(3, server.getRequestCount());
+		for (Map.Entry<String, File> file : files.entrySet()) {
+			assertArrayEquals(Files.readAllBytes(file.getValue().toPath()), server.getObjects().get(file.getKey()).data);
+		}
+	}
+
+	@Test
+	public void testReportsFailedFiles() throws Exception {
+		Map<String, File> files = createFiles("transactions/transaction-", 5);
+		server.failRequests("PUT", "/default/transactions/transaction-3", 503, 1);
+
+		Map<String, StorageException> failures = archiveUploader.uploadAll(files);
+		assertEquals(1, failures.size());
+		assertTrue(failures.containsKey("transactions/transaction-3"));
+		assertEquals(4, server.getObjects().size());
+		assertTrue(archiveUploader.isArchiveUploadSupported());
+	}
+
+	@Test
+	public void testFallsBackToSingleUploads() throws Exception {
+		server.disableBulk();
+		Map<String, File> files = createFiles("actions/action-", 5);
+
+		assertTrue(archiveUploader.uploadAll(files).isEmpty());
+		assertEquals(5, server.getObjects().size());
+		assertFalse(archiveUploader.isArchiveUploadSupported());
+		assertEquals(6, server.getRequestCount());
+	}
+
+	@Test
+	public void testLongPaths() throws Exception {
+		StringBuilder directory = new StringBuilder("databases");
+		while (directory.length() < 120) {
+			directory.append("/directory");
+		}
+		Map<String, File> files = createFiles(directory + "/database-", 1);
+
+		assertTrue(archiveUploader.uploadAll(files).isEmpty());
+		assertTrue(server.getObjects().containsKey(files.keySet().iterator().next()));
+	}
+
+	private Map<String, File> createFiles(String pathPrefix, int count) throws Exception {
+		Map<String, File> files = new LinkedHashMap<>();
+		for (int i = 0; i < count; i++) {
+			File localFile = File.createTempFile("hubic-archive", ".bin");
+			localFiles.add(localFile);
+			Files.write(localFile.toPath(), ("content of file " + i + " ".substring(0, i % 2)).getBytes(StandardCharsets.UTF_8));
+			files.put(pathPrefix + i, localFile);
+		}
+		return files;
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.api.transfer.StorageException;
+import org.syncany.plugins.hubic.adioss.FakeSwiftServer;
+import org.syncany.plugins.hubic.adioss.HubicClient;
+import org.syncany.plugins.hubic.adioss.RetryPolicy;
+
+public class BulkDeleterTest {
+	private FakeSwiftServer server;
+	private BulkDeleter bulkDeleter;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new FakeSwiftServer();
+		server.start();
+		bulkDeleter = new BulkDeleter(new HubicClient(server.getEndpoint(), "test-token", new RetryPolicy(3, 1, 10)), 10);
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Test
+	public void testDeletesInBatches() throws Exception {
+		List<String> paths = storeObjects(25);
+		paths.add("multichunks/missing");
+
+		assertTrue(bulkDeleter.deleteAll(paths).isEmpty());
+		assertTrue(server.getObjects().isEmpty());
+		assertEquals(3, server.getBulkDeleteCount());
+		assertEquals(3, server.getRequestCount());
+	}
+
+	@Test
+	public void testReportsFailedObjects() throws Exception {
+		List<String> paths = storeObjects(5);
+		server.failRequests("DELETE", "/default/multichunks/multichunk-3", 503, 1);
+
+		Map<String, StorageException> failures = bulkDeleter.deleteAll(paths);
+		assertEquals(1, failures.size());
+		assertTrue(failures.containsKey("multichunks/multichunk-3"));
+		assertEquals(1, server.getObjects().size());
+		assertTrue(bulkDeleter.isBulkDeleteSupported());
+	}
+
+	@Test
+	public void testFallsBackToSingleDeletes() throws Exception {
+		server.disableBulk();
+
+		assertTrue(bulkDeleter.deleteAll(storeObjects(5)).isEmpty());
+		assertTrue(server.getObjects().isEmpty());
+		assertFalse(bulkDeleter.isBulkDeleteSupported());
+		assertEquals(6, server.getRequestCount());
+
+		// Bulk deletes are not tried again
+		assertTrue(bulkDeleter.deleteAll(storeObjects(5)).isEmpty());
+		assertEquals(11, server.getRequestCount());
+	}
+
+	@Test
+	public void testEncodesPaths() throws Exception {
+		List<String> paths = new ArrayList<>();
+		paths.add("databases/with space+plus");
+		server.getObjects().put(paths.get(0), new FakeSwiftServer.StoredObject(new byte[10], "application/octet-stream"));
+
+		assertTrue(bulkDeleter.deleteAll(paths).isEmpty());
+		assertTrue(server.getObjects().isEmpty());
+	}
+
+	private List<String> storeObjects(int count) {
+		List<String> paths = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			String path = "multichunks/multichunk-" + i;
+			server.getObjects().put(path, new FakeSwiftServer.StoredObject(new byte[10], "application/octet-stream"));
+			paths.add(path);
+		}
+		return paths;
+	}
+}
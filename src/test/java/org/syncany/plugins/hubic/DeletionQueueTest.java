@@ -0,0 +1,138 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.plugins.hubic.adioss.FakeSwiftServer;
+import org.syncany.plugins.hubic.adioss.HubicClient;
+import org.syncany.plugins.hubic.adioss.RetryPolicy;
+
+public class DeletionQueueTest {
+	private FakeSwiftServer server;
+	private HubicClient hubicClient;
+	private File journalFile;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new FakeSwiftServer();
+		server.start();
+		hubicClient = new HubicClient(server.getEndpoint(), "test-token", new RetryPolicy(1, 1, 10));
+		journalFile = File.createTempFile("hubic-deletes", ".txt");
+		journalFile.delete();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		journalFile.delete();
+		new File(journalFile.getPath() + ".lock").delete();
+	}
+
+	@Test
+	public void testDeletesInBackground() throws Exception {
+		storeObject("multichunks/multichunk-1");
+		DeletionQueue deletionQueue = new DeletionQueue(hubicClient, journalFile, 10);
+
+		deletionQueue.enqueue("multichunks/multichunk-1");
+		assertTrue(deletionQueue.awaitEmpty(10, TimeUnit.SECONDS));
+		assertTrue(server.getObjects().isEmpty());
+		assertFalse(deletionQueue.isPending("multichunks/multichunk-1"));
+		assertTrue(Files.readAllLines(journalFile.toPath(), StandardCharsets.UTF_8).isEmpty());
+	}
+
+	@Test
+	public void testRetriesFailedDeletes() throws Exception {
+		storeObject("multichunks/multichunk-1");
+		server.failRequests("DELETE", "/default/multichunks/multichunk-1", 503, 3);
+		DeletionQueue deletionQueue = new DeletionQueue(hubicClient, journalFile, 10);
+
+		deletionQueue.enqueue("multichunks/multichunk-1");
+		assertTrue(deletionQueue.isPending("multichunks/multichunk-1"));
+		assertTrue(deletionQueue.awaitEmpty(10, TimeUnit.SECONDS));
+		assertTrue(server.getObjects().isEmpty());
+	}
+
+	@Test
+	public void testResumesJournalledDeletes() throws Exception {
+		storeObject("multichunks/multichunk-1");
+		storeObject("multichunks/multichunk-2");
+		Files.write(journalFile.toPath(), Arrays.asList("multichunks/multichunk-1", "multichunks/multichunk-2"), StandardCharsets.UTF_8);
+
+		DeletionQueue deletionQueue = new DeletionQueue(hubicClient, journalFile, 10);
+		assertTrue(deletionQueue.awaitEmpty(10, TimeUnit.SECONDS));
+		assertTrue(server.getObjects().isEmpty());
+	}
+
+	@Test
+	public void testCancelKeepsObject() throws Exception {
+		storeObject("multichunks/multichunk-1");
+		server.failRequests("DELETE", "/default/multichunks/multichunk-1", 503, 1000);
+		DeletionQueue deletionQueue = new DeletionQueue(hubicClient, journalFile, 10);
+
+		deletionQueue.enqueue("multichunks/multichunk-1");
+		deletionQueue.cancel("multichunks/multichunk-1");
+		assertFalse(deletionQueue.isPending("multichunks/multichunk-1"));
+		assertEquals(0, deletionQueue.getPendingCount());
+		assertTrue(deletionQueue.awaitEmpty(0, TimeUnit.SECONDS));
+		assertTrue(Files.readAllLines(journalFile.toPath(), StandardCharsets.UTF_8).isEmpty());
+
+		// No more attempts are made once cancelled
+		int requestCount = server.getRequestCount();
+		Thread.sleep(200);
+		assertEquals(requestCount, server.getRequestCount());
+		assertTrue(server.getObjects().containsKey("multichunks/multichunk-1"));
+	}
+
+	@Test
+	public void testKeepsOtherQueuesJournalledDeletes() throws Exception {
+		storeObject("multichunks/multichunk-1");
+		storeObject("multichunks/multichunk-2");
+		server.failRequests("DELETE", "/default/multichunks/multichunk-1", 503, 1000);
+		server.failRequests("DELETE", "/default/multichunks/multichunk-2", 503, 1000);
+
+		// Two processes deleting through the same account's journal
+		DeletionQueue deletionQueue1 = new DeletionQueue(hubicClient, journalFile, 10);
+		DeletionQueue deletionQueue2 = new DeletionQueue(hubicClient, journalFile, 10);
+
+		deletionQueue1.enqueue("multichunks/multichunk-1");
+		deletionQueue2.enqueue("multichunks/multichunk-2");
+		assertEquals(Arrays.asList("multichunks/multichunk-1", "multichunks/multichunk-2"), Files.readAllLines(journalFile.toPath(), StandardCharsets.UTF_8));
+
+		deletionQueue1.cancel("multichunks/multichunk-1");
+		assertEquals(Arrays.asList("multichunks/multichunk-2"), Files.readAllLines(journalFile.toPath(), StandardCharsets.UTF_8));
+
+		deletionQueue2.cancel("multichunks/multichunk-2");
+		assertTrue(Files.readAllLines(journalFile.toPath(), StandardCharsets.UTF_8).isEmpty());
+	}
+
+	private void storeObject(String path) {
+		server.getObjects().put(path, new FakeSwiftServer.StoredObject(new byte[10], "application/octet-stream"));
+	}
+}
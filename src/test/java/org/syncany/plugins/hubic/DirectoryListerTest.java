@@ -0,0 +1,118 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.api.transfer.StorageException;
+import org.syncany.plugins.hubic.adioss.FakeSwiftServer;
+import org.syncany.plugins.hubic.adioss.HubicClient;
+
+public class DirectoryListerTest {
+	private FakeSwiftServer server;
+	private HubicClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new FakeSwiftServer();
+		server.start();
+		client = new HubicClient(server.getEndpoint(), "test-token");
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Test
+	public void testListsAllPages() throws Exception {
+		for (int i = 0; i < 2500; i++) {
+			server.getObjects().put(String.format("multichunks/multichunk-%05d", i), new FakeSwiftServer.StoredObject(new byte[0], "application/octet-stream"));
+		}
+		server.getObjects().put("databases/database-1", new FakeSwiftServer.StoredObject(new byte[0], "application/octet-stream"));
+
+		List<String> names = new ArrayList<>();
+		new DirectoryLister(client, 1000).list("multichunks/", entry -> names.add(entry.getName()));
+
+		assertEquals(2500, names.size());
+		for (int i = 0; i < 2500; i++) {
+			assertEquals(String.format("multichunks/multichunk-%05d", i), names.get(i));
+		}
+	}
+
+	@Test
+	public void testAbandonedListingStopsFetching() throws Exception {
+		for (int i = 0; i < 50; i++) {
+			server.getObjects().put(String.format("multichunks/multichunk-%05d", i), new FakeSwiftServer.StoredObject(new byte[0], "application/octet-stream"));
+		}
+
+		for (int attempt = 0; attempt < 5; attempt++) {
+			try {
+				new DirectoryLister(client, 5).list("multichunks/", entry -> {
+					// Long enough for the fetcher to fill the queue and wait to hand over the next page
+					try {
+						Thread.sleep(200);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					throw new StorageException("Stopped at " + entry.getName());
+				});
+				fail("Expected a StorageException");
+			} catch (StorageException e) {
+				// Expected
+			}
+		}
+
+		// Every fetcher gives up its page and finishes, rather than waiting for ever
+		long deadline = System.currentTimeMillis() + 5000;
+		while (isFetching() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		assertFalse(isFetching());
+	}
+
+	private static boolean isFetching() {
+		for (Map.Entry<Thread, StackTraceElement[]> thread : Thread.getAllStackTraces().entrySet()) {
+			if (thread.getKey().getName().equals("hubic-list")) {
+				for (StackTraceElement element : thread.getValue()) {
+					if (element.getMethodName().equals("fetchPages")) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	@Test
+	public void testListsEmptyDirectory() throws Exception {
+		List<String> names = new ArrayList<>();
+		new DirectoryLister(client, 1000).list("multichunks/", entry -> names.add(entry.getName()));
+
+		assertEquals(0, names.size());
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.api.transfer.StorageException;
+import org.syncany.plugins.hubic.adioss.FakeSwiftServer;
+import org.syncany.plugins.hubic.adioss.HubicClient;
+import org.syncany.plugins.hubic.adioss.RetryPolicy;
+
+public class DownloadCacheTest {
+	private FakeSwiftServer server;
+	private HubicClient hubicClient;
+	private RangedDownloader rangedDownloader;
+	private File cacheDirectory;
+	private File localFile;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new FakeSwiftServer();
+		server.start();
+		hubicClient = new HubicClient(server.getEndpoint(), "test-token", new RetryPolicy(3, 1, 10));
+		rangedDownloader = new RangedDownloader(hubicClient, 1024, 4);
+		cacheDirectory = Files.createTempDirectory("hubic-download-cache").toFile();
+		localFile = File.createTempFile("hubic-download", ".bin");
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		for (File file : cacheDirectory.listFiles()) {
+			file.delete();
+		}
+		cacheDirectory.delete();
+		localFile.delete();
+	}
+
+	@Test
+	public void testUnchangedObjectServedFromCache() throws Exception {
+		byte[] data = storeObject("multichunks/multichunk-1", 5000);
+		DownloadCache downloadCache = new DownloadCache(hubicClient, rangedDownloader, cacheDirectory, 1024 * 1024);
+
+		downloadCache.download("multichunks/multichunk-1", localFile);
+		assertEquals(0, downloadCache.getHitCount());
+		assertEquals(1, downloadCache.getMissCount());
+		assertEquals(5000, downloadCache.getSize());
+
+		localFile.delete();
+		int requestCount = server.getRequestCount();
+		downloadCache.download("multichunks/multichunk-1", localFile);
+		assertArrayEquals(data, Files.readAllBytes(localFile.toPath()));
+		assertEquals(1, downloadCache.getHitCount());
+		assertEquals(requestCount + 1, server.getRequestCount());
+	}
+
+	@Test
+	public void testChangedObjectDownloadedAgain() throws Exception {
+		storeObject("databases/database-1", 100);
+		DownloadCache downloadCache = new DownloadCache(hubicClient, rangedDownloader, cacheDirectory, 1024 * 1024);
+		downloadCache.download("databases/database-1", localFile);
+
+		byte[] data = storeObject("databases/database-1", 200);
+		downloadCache.download("databases/database-1", localFile);
+		assertArrayEquals(data, Files.readAllBytes(localFile.toPath()));
+		assertEquals(0, downloadCache.getHitCount());
+		assertEquals(2, downloadCache.getMissCount());
+		assertEquals(200, downloadCache.getSize());
+		assertEquals(1, cacheDirectory.listFiles().length);
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() throws Exception {
+		storeObject("multichunks/multichunk-1", 400);
+		storeObject("multichunks/multichunk-2", 400);
+		storeObject("multichunks/multichunk-3", 400);
+		DownloadCache downloadCache = new DownloadCache(hubicClient, rangedDownloader, cacheDirectory, 1000);
+
+		downloadCache.download("multichunks/multichunk-1", localFile);
+		downloadCache.download("multichunks/multichunk-2", localFile);
+		downloadCache.download("multichunks/multichunk-1", localFile);
+		downloadCache.download("multichunks/multichunk-3", localFile);
+		assertEquals(800, downloadCache.getSize());
+
+		// The second was used least recently, so was evicted
+		downloadCache.download("multichunks/multichunk-1", localFile);
+		downloadCache.download("multichunks/multichunk-2", localFile);
+		assertEquals(2, downloadCache.getHitCount());
+		assertEquals(4, downloadCache.getMissCount());
+		assertEquals(2, downloadCache.getEvictionCount());
+		assertTrue(hubicClient.getMetrics().getReport().contains("download cache"));
+	}
+
+	@Test
+	public void testCacheKeptAcrossRestarts() throws Exception {
+		byte[] data = storeObject("multichunks/multichunk-1", 3000);
+		new DownloadCache(hubicClient, rangedDownloader, cacheDirectory, 1024 * 1024).download("multichunks/multichunk-1", localFile);
+
+		DownloadCache downloadCache = new DownloadCache(hubicClient, rangedDownloader, cacheDirectory, 1024 * 1024);
+		assertEquals(3000, downloadCache.getSize());
+		localFile.delete();
+		downloadCache.download("multichunks/multichunk-1", localFile);
+		assertArrayEquals(data, Files.readAllBytes(localFile.toPath()));
+		assertEquals(1, downloadCache.getHitCount());
+	}
+
+	@Test
+	public void testDeletedObjectDroppedFromCache() throws Exception {
+		storeObject("multichunks/multichunk-1", 100);
+		DownloadCache downloadCache = new DownloadCache(hubicClient, rangedDownloader, cacheDirectory, 1024 * 1024);
+		downloadCache.download("multichunks/multichunk-1", localFile);
+
+		server.getObjects().clear();
+		try {
+			downloadCache.download("multichunks/multichunk-1", localFile);
+			fail("Expected a StorageException");
+		} catch (StorageException e) {
+			// Expected
+		}
+		assertEquals(0, downloadCache.getSize());
+		assertEquals(0, cacheDirectory.listFiles().length);
+	}
+
+	@Test
+	public void testCorruptCopyDownloadedAgain() throws Exception {
+		byte[] data = storeObject("multichunks/multichunk-1", 2000);
+		DownloadCache downloadCache = new DownloadCache(hubicClient, rangedDownloader, cacheDirectory, 1024 * 1024);
+		downloadCache.download("multichunks/multichunk-1", localFile);
+
+		File cachedFile = cacheDirectory.listFiles()[0];
+		Files.write(cachedFile.toPath(), new byte[1000]);
+
+		localFile.delete();
+		downloadCache.download("multichunks/multichunk-1", localFile);
+		assertArrayEquals(data, Files.readAllBytes(localFile.toPath()));
+		assertEquals(0, downloadCache.getHitCount());
+		assertEquals(2, downloadCache.getMissCount());
+		assertEquals(2000, downloadCache.getSize());
+	}
+
+	@Test
+	public void testConcurrentDownloadsOfSameObject() throws Exception {
+		byte[] data = storeObject("multichunks/multichunk-1", 50000);
+		DownloadCache downloadCache = new DownloadCache(hubicClient, rangedDownloader, cacheDirectory, 1024 * 1024);
+
+		List<File> localFiles = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		for (int i = 0; i < 4; i++) {
+			File file = File.createTempFile("hubic-download", ".bin");
+			localFiles.add(file);
+			threads.add(new Thread(() -> {
+				try {
+					downloadCache.download("multichunks/multichunk-1", file);
+				} catch (Throwable e) {
+					failures.add(e);
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		try {
+			assertEquals(Collections.emptyList(), failures);
+			for (File file : localFiles) {
+				assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+			}
+			assertEquals(50000, downloadCache.getSize());
+			assertEquals(1, cacheDirectory.listFiles().length);
+		} finally {
+			for (File file : localFiles) {
+				file.delete();
+			}
+		}
+	}
+
+	private byte[] storeObject(String path, int size) {
+		byte[] data = new byte[size];
+		new Random().nextBytes(data);
+		server.getObjects().put(path, new FakeSwiftServer.StoredObject(data, "application/octet-stream"));
+		return data;
+	}
+}
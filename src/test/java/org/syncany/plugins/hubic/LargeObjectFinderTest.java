@@ -0,0 +1,118 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.plugins.hubic.adioss.FakeSwiftServer;
+import org.syncany.plugins.hubic.adioss.HubicClient;
+import org.syncany.plugins.hubic.adioss.RetryPolicy;
+
+/**
+ * Large objects uploaded by one process, and deleted or moved by another
+ * that knows nothing of the upload, as when cleanup runs on its own.
+ */
+public class LargeObjectFinderTest {
+	private static final int SEGMENT_SIZE = 1000;
+
+	private FakeSwiftServer server;
+	private HubicClient otherProcessClient;
+	private byte[] content;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new FakeSwiftServer();
+		server.start();
+		otherProcessClient = new HubicClient(server.getEndpoint(), "test-token", new RetryPolicy(3, 1, 10));
+
+		content = new byte[SEGMENT_SIZE * 3 + 10];
+		new Random(42).nextBytes(content);
+		File localFile = File.createTempFile("hubic-large-object", ".bin");
+		try {
+			Files.write(localFile.toPath(), content);
+			HubicClient uploadingClient = new HubicClient(server.getEndpoint(), "test-token", new RetryPolicy(3, 1, 10));
+			new SegmentedUploader(uploadingClient, SEGMENT_SIZE, 2).upload(localFile, "multichunks/large");
+		} finally {
+			localFile.delete();
+		}
+		server.getObjects().put("multichunks/plain", new FakeSwiftServer.StoredObject(new byte[10], "application/octet-stream"));
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Test
+	public void testFindsLargeObjectsOfOtherProcesses() throws Exception {
+		Set<String> largeObjects = new LargeObjectFinder(otherProcessClient).find(Arrays.asList("multichunks/large", "multichunks/plain"));
+		assertEquals(Collections.singleton("multichunks/large"), largeObjects);
+	}
+
+	@Test
+	public void testFindsMovedLargeObjects() throws Exception {
+		// As Syncany does, uploaded to the temporary directory and then moved
+		otherProcessClient.copyManifest("multichunks/large", "databases/moved");
+		otherProcessClient.delete("multichunks/large");
+
+		Set<String> largeObjects = new LargeObjectFinder(otherProcessClient).find(Arrays.asList("databases/moved", "multichunks/plain"));
+		assertEquals(Collections.singleton("databases/moved"), largeObjects);
+	}
+
+	@Test
+	public void testMissingObjectIsNotLarge() throws Exception {
+		assertTrue(new LargeObjectFinder(otherProcessClient).find(Arrays.asList("databases/database-1")).isEmpty());
+	}
+
+	@Test
+	public void testDeleteRemovesSegmentsOfOtherProcesses() throws Exception {
+		assertEquals(4, server.getObjects(HubicClient.SEGMENTS_CONTAINER).size());
+
+		otherProcessClient.deleteLargeObject("multichunks/large");
+		otherProcessClient.deleteLargeObject("multichunks/plain");
+
+		assertEquals(0, server.getObjects(HubicClient.SEGMENTS_CONTAINER).size());
+		assertTrue(server.getObjects().isEmpty());
+	}
+
+	@Test
+	public void testMoveCopiesManifestOfOtherProcesses() throws Exception {
+		assertEquals(201, otherProcessClient.copyManifest("multichunks/large", "multichunks/moved").getCode());
+		assertEquals(201, otherProcessClient.copyManifest("multichunks/plain", "multichunks/moved-plain").getCode());
+
+		// The copy refers to the same segments, rather than holding their data
+		assertNotNull(server.getObjects().get("multichunks/moved").manifest);
+		assertArrayEquals(content, server.getObjects().get("multichunks/moved").data);
+		assertNull(server.getObjects().get("multichunks/moved-plain").manifest);
+		assertEquals(10, server.getObjects().get("multichunks/moved-plain").data.length);
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.syncany.plugins.hubic.adioss.ContainerStats;
+
+public class ListingCacheTest {
+	private static final ContainerStats STATS = new ContainerStats(2, 100);
+
+	@Test
+	public void testWritesUpdateCachedListing() throws Exception {
+		ListingCache cache = new ListingCache(60000);
+		cache.put("multichunks/", names("a", "b"), STATS, cache.getGeneration());
+
+		cache.added("multichunks/", "c");
+		cache.removed("multichunks/", "a");
+
+		assertEquals(names("b", "c"), cache.get("multichunks/", () -> STATS));
+	}
+
+	@Test
+	public void testExpiredListingKeptIfContainerUnchanged() throws Exception {
+		ListingCache cache = new ListingCache(1);
+		cache.put("multichunks/", names("a"), STATS, cache.getGeneration());
+		Thread.sleep(5);
+
+		assertEquals(names("a"), cache.get("multichunks/", () -> new ContainerStats(2, 100)));
+	}
+
+	@Test
+	public void testExpiredListingDroppedIfContainerChanged() throws Exception {
+		ListingCache cache = new ListingCache(1);
+		cache.put("multichunks/", names("a"), STATS, cache.getGeneration());
+		Thread.sleep(5);
+
+		assertNull(cache.get("multichunks/", () -> new ContainerStats(3, 150)));
+	}
+
+	@Test
+	public void testListingRelistedAfterMaxStatsRevalidations() throws Exception {
+		ListingCache cache = new ListingCache(1);
+		cache.put("multichunks/", names("a"), STATS, cache.getGeneration());
+
+		for (int i = 0; i < ListingCache.MAX_STATS_REVALIDATIONS; i++) {
+			Thread.sleep(5);
+			assertEquals(names("a"), cache.get("multichunks/", () -> STATS));
+		}
+
+		Thread.sleep(5);
+		assertNull(cache.get("multichunks/", () -> STATS));
+	}
+
+	@Test
+	public void testExpiredListingDroppedAfterOwnWrite() throws Exception {
+		ListingCache cache = new ListingCache(1);
+		cache.put("multichunks/", names("a"), STATS, cache.getGeneration());
+		cache.added("databases/", "database-1");
+		Thread.sleep(5);
+
+		assertNull(cache.get("multichunks/", () -> STATS));
+	}
+
+	@Test
+	public void testListingNotCachedIfChangedWhileFetching() throws Exception {
+		ListingCache cache = new ListingCache(60000);
+		long generation = cache.getGeneration();
+		cache.added("multichunks/", "b");
+		cache.put("multichunks/", names("a"), STATS, generation);
+
+		assertNull(cache.get("multichunks/", () -> STATS));
+	}
+
+	@Test
+	public void testDisabled() throws Exception {
+		ListingCache cache = new ListingCache(0);
+		cache.put("multichunks/", names("a"), STATS, cache.getGeneration());
+
+		assertNull(cache.get("multichunks/", () -> STATS));
+	}
+
+	private static Set<String> names(String... names) {
+		return new HashSet<>(Arrays.asList(names));
+	}
+}
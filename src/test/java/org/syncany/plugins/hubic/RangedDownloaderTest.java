@@ -0,0 +1,115 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.api.transfer.StorageException;
+import org.syncany.plugins.hubic.adioss.FakeSwiftServer;
+import org.syncany.plugins.hubic.adioss.HubicClient;
+
+public class RangedDownloaderTest {
+	private static final int RANGE_SIZE = 1000;
+
+	private FakeSwiftServer server;
+	private HubicClient client;
+	private File localFile;
+	private byte[] content;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new FakeSwiftServer();
+		server.start();
+		client = new HubicClient(server.getEndpoint(), "test-token");
+
+		content = new byte[RANGE_SIZE * 5 + 123];
+		new Random(42).nextBytes(content);
+		server.getObjects().put("multichunks/multichunk-1", new FakeSwiftServer.StoredObject(content, "application/octet-stream"));
+
+		localFile = File.createTempFile("hubic-ranges", ".bin");
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		localFile.delete();
+	}
+
+	@Test
+	public void testDownloadsAllRanges() throws Exception {
+		// Leftovers from a longer file must not survive the download
+		Files.write(localFile.toPath(), new byte[content.length * 2]);
+
+		new RangedDownloader(client, RANGE_SIZE, 3).download("multichunks/multichunk-1", localFile);
+
+		assertArrayEquals(content, Files.readAllBytes(localFile.toPath()));
+		assertEquals(6, server.getRequestCount());
+	}
+
+	@Test
+	public void testSmallObjectTakesOneRequest() throws Exception {
+		new RangedDownloader(client, content.length, 3).download("multichunks/multichunk-1", localFile);
+
+		assertArrayEquals(content, Files.readAllBytes(localFile.toPath()));
+		assertEquals(1, server.getRequestCount());
+	}
+
+	@Test
+	public void testEmptyObject() throws Exception {
+		server.getObjects().put("multichunks/empty", new FakeSwiftServer.StoredObject(new byte[0], "application/octet-stream"));
+		Files.write(localFile.toPath(), content);
+
+		new RangedDownloader(client, RANGE_SIZE, 3).download("multichunks/empty", localFile);
+
+		assertEquals(0, localFile.length());
+	}
+
+	@Test
+	public void testResumesDroppedRange() throws Exception {
+		server.dropDownloads("/default/multichunks/", 300, 2);
+
+		new RangedDownloader(client, RANGE_SIZE, 1).download("multichunks/multichunk-1", localFile);
+
+		assertArrayEquals(content, Files.readAllBytes(localFile.toPath()));
+		// 6 ranges, plus one resumption for each of the 2 dropped ones
+		assertEquals(8, server.getRequestCount());
+	}
+
+	@Test
+	public void testWholeObjectWithoutContentLength() throws Exception {
+		server.ignoreRanges();
+
+		new RangedDownloader(client, RANGE_SIZE, 3).download("multichunks/multichunk-1", localFile);
+
+		assertArrayEquals(content, Files.readAllBytes(localFile.toPath()));
+		assertEquals(1, server.getRequestCount());
+	}
+
+	@Test(expected = StorageException.class)
+	public void testMissingObject() throws Exception {
+		new RangedDownloader(client, RANGE_SIZE, 3).download("multichunks/missing", localFile);
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.api.transfer.StorageException;
+import org.syncany.plugins.hubic.adioss.FakeSwiftServer;
+import org.syncany.plugins.hubic.adioss.HubicClient;
+import org.syncany.plugins.hubic.adioss.RetryPolicy;
+
+public class RepositoryInitializerTest {
+	private static final List<String> DIRECTORIES = Arrays.asList("multichunks/", "databases/", "actions/", "transactions/", "temporary/");
+
+	private FakeSwiftServer server;
+	private RepositoryInitializer repositoryInitializer;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new FakeSwiftServer();
+		server.start();
+		repositoryInitializer = new RepositoryInitializer(new HubicClient(server.getEndpoint(), "test-token", new RetryPolicy(1, 1, 10)));
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Test
+	public void testCreatesMissingDirectories() throws Exception {
+		storeDirectory("databases/");
+		storeDirectory("actions/");
+
+		assertEquals(3, repositoryInitializer.init("", "syncany", true, DIRECTORIES));
+		for (String directory : DIRECTORIES) {
+			assertEquals("application/directory", server.getObjects().get(directory).contentType);
+		}
+		// Seven lookups, then three creates
+		assertEquals(10, server.getRequestCount());
+	}
+
+	@Test
+	public void testSetUpRepositoryOnlyLooksUp() throws Exception {
+		assertEquals(5, repositoryInitializer.init("", "syncany", true, DIRECTORIES));
+		int requestCount = server.getRequestCount();
+
+		assertEquals(0, repositoryInitializer.init("", "syncany", false, DIRECTORIES));
+		assertEquals(requestCount + DIRECTORIES.size(), server.getRequestCount());
+	}
+
+	@Test
+	public void testCreatesRepositoryDirectory() throws Exception {
+		List<String> directories = Arrays.asList("repo/multichunks/", "repo/databases/");
+
+		assertEquals(3, repositoryInitializer.init("repo/", "repo/syncany", true, directories));
+		assertTrue(server.getObjects().containsKey("repo/"));
+
+		// Not once the repository exists
+		server.getObjects().remove("repo/");
+		storeDirectory("repo/syncany");
+		assertEquals(0, repositoryInitializer.init("repo/", "repo/syncany", true, directories));
+	}
+
+	@Test
+	public void testReportsFailedCreate() throws Exception {
+		server.failRequests("PUT", "/default/actions/", 403, 1);
+
+		try {
+			repositoryInitializer.init("", "syncany", false, DIRECTORIES);
+			fail("Expected a StorageException");
+		} catch (StorageException e) {
+			assertTrue(e.getMessage().contains("actions/"));
+		}
+		// The other directories are still created
+		assertEquals(4, server.getObjects().size());
+	}
+
+	private void storeDirectory(String path) {
+		server.getObjects().put(path, new FakeSwiftServer.StoredObject(new byte[0], "application/directory"));
+	}
+}
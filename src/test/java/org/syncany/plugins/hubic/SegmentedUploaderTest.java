@@ -0,0 +1,99 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.plugins.hubic.adioss.FakeSwiftServer;
+import org.syncany.plugins.hubic.adioss.HubicClient;
+import org.syncany.plugins.hubic.adioss.RetryPolicy;
+
+public class SegmentedUploaderTest {
+	private static final int SEGMENT_SIZE = 1000;
+
+	private FakeSwiftServer server;
+	private HubicClient client;
+	private File localFile;
+	private byte[] content;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new FakeSwiftServer();
+		server.start();
+		client = new HubicClient(server.getEndpoint(), "test-token", new RetryPolicy(3, 1, 10));
+
+		content = new byte[SEGMENT_SIZE * 5 + 123];
+		new Random(42).nextBytes(content);
+		localFile = File.createTempFile("hubic-segments", ".bin");
+		Files.write(localFile.toPath(), content);
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		localFile.delete();
+	}
+
+	@Test
+	public void testUploadsSegmentsAndManifest() throws Exception {
+		SegmentedUploader uploader = new SegmentedUploader(client, SEGMENT_SIZE, 3);
+		assertTrue(uploader.shouldSegment(localFile));
+
+		uploader.upload(localFile, "databases/database-1");
+
+		assertEquals(6, server.getObjects(HubicClient.SEGMENTS_CONTAINER).size());
+		File downloaded = File.createTempFile("hubic-segments", ".download");
+		try {
+			assertEquals(200, client.download("databases/database-1", downloaded).getCode());
+			assertArrayEquals(content, Files.readAllBytes(downloaded.toPath()));
+		} finally {
+			downloaded.delete();
+		}
+
+		assertEquals(204, client.deleteLargeObject("databases/database-1").getCode());
+		assertEquals(0, server.getObjects(HubicClient.SEGMENTS_CONTAINER).size());
+	}
+
+	@Test
+	public void testRetriesOnlyFailedSegments() throws Exception {
+		server.failRequests("PUT", "/" + HubicClient.SEGMENTS_CONTAINER + "/", 503, 2);
+		SegmentedUploader uploader = new SegmentedUploader(client, SEGMENT_SIZE, 1);
+
+		uploader.upload(localFile, "databases/database-1");
+
+		assertArrayEquals(content, server.getObjects().get("databases/database-1").data);
+		// 1 container creation, 6 segments, 2 retried segments and 1 manifest
+		assertEquals(10, server.getRequestCount());
+	}
+
+	@Test
+	public void testSmallFilesAreNotSegmented() throws Exception {
+		assertFalse(new SegmentedUploader(client, content.length, 3).shouldSegment(localFile));
+		assertFalse(new SegmentedUploader(client, 0, 3).shouldSegment(localFile));
+	}
+}
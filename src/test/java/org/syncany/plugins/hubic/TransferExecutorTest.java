@@ -0,0 +1,80 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2017 Nigel Westbury
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.hubic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.syncany.api.transfer.StorageException;
+import org.syncany.plugins.hubic.adioss.VirtualThreads;
+
+public class TransferExecutorTest {
+	@Test
+	public void testReportsEveryFailure() throws Exception {
+		TransferExecutor executor = new TransferExecutor(4, false);
+
+		Map<Integer, TransferExecutor.Transfer> transfers = new LinkedHashMap<>();
+		for (int i = 0; i < 20; i++) {
+			int number = i;
+			transfers.put(number, () -> {
+				if (number % 5 == 0) {
+					throw new StorageException("transfer " + number + " failed");
+				}
+			});
+		}
+
+		Map<Integer, StorageException> failures = executor.runAll(transfers);
+		assertEquals(4, failures.size());
+		assertEquals("transfer 5 failed", failures.get(5).getMessage());
+	}
+
+	@Test
+	public void testVirtualThreadsRunEveryTransferAtOnce() throws Exception {
+		int transferCount = VirtualThreads.isAvailable() ? 2000 : 4;
+		TransferExecutor executor = new TransferExecutor(4, true);
+
+		// Every transfer waits for all the others to start, which only
+		// completes if they all run at once
+		CountDownLatch started = new CountDownLatch(transferCount);
+		Set<Boolean> timedOut = ConcurrentHashMap.newKeySet();
+		Map<Integer, TransferExecutor.Transfer> transfers = new LinkedHashMap<>();
+		for (int i = 0; i < transferCount; i++) {
+			transfers.put(i, () -> {
+				started.countDown();
+				try {
+					if (!started.await(30, TimeUnit.SECONDS)) {
+						timedOut.add(true);
+					}
+				} catch (InterruptedException e) {
+					throw new StorageException("interrupted", e);
+				}
+			});
+		}
+
+		assertTrue(executor.runAll(transfers).isEmpty());
+		assertTrue(timedOut.isEmpty());
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.security.MessageDigest;
+
+/**
+ * Reports the bytes allocated on the heap by each copy of a response body,
+ * in the steady state once the buffer pool is warm, for each way a body is
+ * copied: into a file at a position (ranged downloads), into a stream, and
+ * read as text.  The pooled copies should allocate next to nothing beyond
+ * the text itself, against the 64 KB of a fresh buffer for every copy.
+ * <p>
+ * Needs a JVM that reports allocation per thread, as HotSpot does.
+ */
+public class BufferAllocationBenchmark {
+	private static final int BODY_SIZE = 1024 * 1024;
+	private static final int WARMUP = 2000;
+	private static final int ITERATIONS = 5000;
+
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private interface Copy {
+		void run(InputStream body) throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception {
+		File file = File.createTempFile("hubic-allocation-benchmark", ".bin");
+		file.deleteOnExit();
+		byte[] content = new byte[BODY_SIZE];
+		byte[] text = "[{\"name\":\"multichunks/multichunk-1\",\"bytes\":10}]".getBytes("UTF-8");
+		MessageDigest digest = Checksums.newMd5();
+		OutputStream discard = new OutputStream() {
+			@Override
+			public void write(int b) {
+				// Discard
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				// Discard
+			}
+		};
+
+		HttpRequest positioned = HttpRequest.get("http://localhost/default/benchmark").binary(file.toPath(), 0);
+		HttpRequest plain = HttpRequest.get("http://localhost/default/benchmark").plain();
+
+		System.out.println("copy\tbytes allocated per copy");
+		report("1 MB into a file at a position", content, body -> ResponseReader.read(() -> body, positioned, digest));
+		report("1 MB into a stream", content, body -> ResponseReader.copy(body, discard));
+		report("1 MB into a stream, fresh buffer", content, body -> {
+			byte[] buffer = new byte[BufferPool.BUFFER_SIZE];
+			int bytesRead;
+			while ((bytesRead = body.read(buffer)) != -1) {
+				discard.write(buffer, 0, bytesRead);
+			}
+		});
+		report("small text response", text, body -> ResponseReader.read(() -> body, plain, digest));
+		report("discarded error body", text, body -> ResponseReader.discard(body));
+	}
+
+	private static void report(String name, byte[] content, Copy copy) throws Exception {
+		ByteArrayInputStream body = new ByteArrayInputStream(content);
+		for (int i = 0; i < WARMUP; i++) {
+			body.reset();
+			copy.run(body);
+		}
+
+		long threadId = Thread.currentThread().getId();
+		long before = THREADS.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < ITERATIONS; i++) {
+			body.reset();
+			copy.run(body);
+		}
+		long allocated = THREADS.getThreadAllocatedBytes(threadId) - before;
+		System.out.printf("%s\t%d%n", name, allocated / ITERATIONS);
+	}
+}
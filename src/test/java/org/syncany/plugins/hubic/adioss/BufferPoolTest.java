@@ -0,0 +1,78 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+	@Test
+	public void testReusesBuffers() {
+		BufferPool pool = new BufferPool(1024, 4);
+		ByteBuffer buffer = pool.acquire();
+		buffer.put((byte) 1);
+		pool.release(buffer);
+
+		ByteBuffer reused = pool.acquire();
+		assertSame(buffer, reused);
+		assertEquals(0, reused.position());
+		assertEquals(1024, reused.limit());
+		assertEquals(1, pool.getAllocatedCount());
+	}
+
+	@Test
+	public void testHoldsAtMostItsBound() {
+		BufferPool pool = new BufferPool(1024, 2);
+		List<ByteBuffer> buffers = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			buffers.add(pool.acquire());
+		}
+		for (ByteBuffer buffer : buffers) {
+			pool.release(buffer);
+		}
+		assertEquals(5, pool.getAllocatedCount());
+
+		for (int i = 0; i < 5; i++) {
+			pool.acquire();
+		}
+		// Only two were kept
+		assertEquals(8, pool.getAllocatedCount());
+	}
+
+	@Test
+	public void testSteadyCopiesAllocateNoBuffers() throws Exception {
+		byte[] content = new byte[1024 * 1024];
+		ResponseReader.copy(new ByteArrayInputStream(content), new ByteArrayOutputStream());
+		long allocated = BufferPool.SHARED.getAllocatedCount();
+
+		for (int i = 0; i < 100; i++) {
+			ResponseReader.copy(new ByteArrayInputStream(content), new ByteArrayOutputStream(content.length));
+		}
+		assertEquals(allocated, BufferPool.SHARED.getAllocatedCount());
+	}
+}
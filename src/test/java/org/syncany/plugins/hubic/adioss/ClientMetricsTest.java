@@ -0,0 +1,160 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.api.transfer.features.PathAwareRemoteFileType;
+
+public class ClientMetricsTest {
+	private FakeSwiftServer server;
+	private ClientMetrics metrics;
+	private HubicClient client;
+	private File localFile;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new FakeSwiftServer();
+		server.start();
+		metrics = new ClientMetrics(path -> path.startsWith("multichunks/") ? PathAwareRemoteFileType.Multichunk : null);
+		client = new HubicClient(server.getEndpoint(), "test-token", new RetryPolicy(3, 1, 10), ConcurrencyLimiter.unlimited(), new HttpAPI(),
+				metrics);
+		localFile = File.createTempFile("hubic-metrics", ".data");
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		localFile.delete();
+	}
+
+	@Test
+	public void testCountsByOperationTypeAndStatus() throws Exception {
+		Files.write(localFile.toPath(), new byte[5000]);
+		client.upload(localFile, "multichunks/multichunk-1");
+		client.download("multichunks/multichunk-1", localFile);
+		client.head("multichunks/missing");
+		client.createDirectory("databases/");
+
+		Map<String, Long> requestCounts = metrics.getRequestCounts();
+		assertEquals(Long.valueOf(1), requestCounts.get("UPLOAD Multichunk 2xx"));
+		assertEquals(Long.valueOf(1), requestCounts.get("DOWNLOAD Multichunk 2xx"));
+		assertEquals(Long.valueOf(1), requestCounts.get("HEAD Multichunk 4xx"));
+		assertEquals(Long.valueOf(1), requestCounts.get("CREATE_DIRECTORY Other 2xx"));
+		assertEquals(4, requestCounts.size());
+		assertEquals(4, metrics.getRequestCount());
+		assertEquals(0, metrics.getErrorCount());
+		assertEquals(0, metrics.getInFlightCount());
+
+		assertEquals(5000, metrics.getBytesSent());
+		assertEquals(5000, metrics.getBytesReceived());
+		assertEquals(Long.valueOf(5000), metrics.getByteCounts().get("DOWNLOAD Multichunk received"));
+
+		assertTrue(metrics.getLatencyMicros().get("UPLOAD Multichunk max") > 0);
+		assertTrue(metrics.getReport().contains("UPLOAD Multichunk"));
+	}
+
+	@Test
+	public void testRetriedRequestCountedOnce() throws Exception {
+		server.failRequests("PUT", "/default/databases/", 503, 5);
+
+		client.createDirectory("databases/");
+
+		assertEquals(Long.valueOf(1), metrics.getRequestCounts().get("CREATE_DIRECTORY Other 5xx"));
+		assertEquals(1, metrics.getRequestCount());
+		assertEquals(1, metrics.getErrorCount());
+		assertEquals(3, client.getAttemptCount());
+	}
+
+	@Test
+	public void testCancelledRequestCountedWhenDone() throws Exception {
+		CompletableFuture<Response> sent = new CompletableFuture<>();
+		HttpTransport pendingTransport = new HttpTransport() {
+			@Override
+			public Response execute(HttpRequest request) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public CompletableFuture<Response> executeAsync(HttpRequest request) {
+				return sent;
+			}
+		};
+		HubicClient pendingClient = new HubicClient(server.getEndpoint(), "test-token", RetryPolicy.NONE, ConcurrencyLimiter.unlimited(),
+				pendingTransport, metrics);
+
+		pendingClient.headAsync("multichunks/multichunk-1").cancel(false);
+		assertEquals(1, metrics.getInFlightCount());
+		assertEquals(0, metrics.getRequestCount());
+
+		sent.complete(new Response(200, new HashMap<String, List<String>>(), null));
+		assertEquals(0, metrics.getInFlightCount());
+		assertEquals(Long.valueOf(1), metrics.getRequestCounts().get("HEAD Multichunk 2xx"));
+	}
+
+	@Test
+	public void testRegistersAsMXBean() throws Exception {
+		MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("org.syncany.plugins.hubic:type=ClientMetricsTest");
+		mBeanServer.registerMBean(metrics, name);
+		try {
+			client.head("multichunks/missing");
+			assertEquals(1L, mBeanServer.getAttribute(name, "RequestCount"));
+			metrics.recordCacheHit();
+			assertEquals(1L, mBeanServer.getAttribute(name, "CacheHitCount"));
+			assertEquals(0L, mBeanServer.getAttribute(name, "CacheEvictionCount"));
+			assertTrue(((String) mBeanServer.getAttribute(name, "Report")).contains("HEAD Multichunk"));
+		} finally {
+			mBeanServer.unregisterMBean(name);
+		}
+	}
+
+	@Test
+	public void testHistogramPrecision() {
+		for (long value : new long[] { 0, 1, 15, 16, 17, 100, 1000, 123456, 1L << 30, LatencyHistogram.MAX_VALUE }) {
+			long highest = LatencyHistogram.highestValue(LatencyHistogram.bucketIndex(value));
+			assertTrue(value + " in bucket up to " + highest, highest >= value && highest <= value + value / 8);
+		}
+
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertTrue(Math.abs(histogram.getPercentile(50) - 500000) <= 500000 / 8);
+		assertTrue(Math.abs(histogram.getPercentile(99) - 990000) <= 990000 / 8);
+		assertTrue(histogram.getPercentile(100) >= 1000000);
+	}
+}
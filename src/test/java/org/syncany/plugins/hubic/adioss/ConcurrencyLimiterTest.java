@@ -0,0 +1,218 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.syncany.plugins.hubic.adioss.ConcurrencyLimiter.Outcome;
+
+public class ConcurrencyLimiterTest {
+	@Test
+	public void testGrowsWhileFullAndHealthy() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 4);
+
+		for (int round = 0; round < 10; round++) {
+			long first = limiter.acquire();
+			long second = limiter.acquire();
+			limiter.release(first, "GET", Outcome.SUCCESS);
+			limiter.release(second, "GET", Outcome.SUCCESS);
+		}
+
+		assertTrue(limiter.getLimit() > 2);
+		assertTrue(limiter.getLimit() <= 4);
+	}
+
+	@Test
+	public void testDoesNotGrowWhenUnderused() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 4);
+
+		for (int i = 0; i < 100; i++) {
+			limiter.release(limiter.acquire(), "GET", Outcome.SUCCESS);
+		}
+
+		assertEquals(2, limiter.getLimit());
+	}
+
+	@Test
+	public void testHalvesOncePerRoundWhenOverloaded() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 1, 8);
+
+		long[] starts = new long[4];
+		for (int i = 0; i < starts.length; i++) {
+			starts[i] = limiter.acquire();
+		}
+		for (long start : starts) {
+			limiter.release(start, "PUT", Outcome.OVERLOADED);
+		}
+		assertEquals(4, limiter.getLimit());
+		assertEquals(1, limiter.getDecreaseCount());
+
+		limiter.release(limiter.acquire(), "PUT", Outcome.OVERLOADED);
+		assertEquals(2, limiter.getLimit());
+
+		limiter.release(limiter.acquire(), "PUT", Outcome.OVERLOADED);
+		limiter.release(limiter.acquire(), "PUT", Outcome.OVERLOADED);
+		assertEquals(1, limiter.getLimit());
+	}
+
+	@Test
+	public void testLargeTransfersNotJudgedByLatency() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 1, 8);
+		for (int i = 0; i < 20; i++) {
+			limiter.release(limiter.acquire(), "PUT", 100, Outcome.SUCCESS);
+		}
+
+		// Far slower than the small PUTs, as a segment upload is
+		long start = limiter.acquire();
+		Thread.sleep(100);
+		limiter.release(start, "PUT", 64 * 1024 * 1024, Outcome.SUCCESS);
+		assertEquals(8, limiter.getLimit());
+		assertEquals(0, limiter.getDecreaseCount());
+
+		// Nor does it raise the usual latency that small requests are judged by
+		start = limiter.acquire();
+		Thread.sleep(100);
+		limiter.release(start, "PUT", 100, Outcome.SUCCESS);
+		assertEquals(4, limiter.getLimit());
+	}
+
+	@Test
+	public void testFailuresDoNotChangeLimit() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 4);
+
+		limiter.release(limiter.acquire(), "GET", Outcome.FAILED);
+
+		assertEquals(1, limiter.getLimit());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void testBlocksAtLimit() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1);
+		long start = limiter.acquire();
+
+		CountDownLatch acquired = new CountDownLatch(1);
+		Thread waiter = new Thread(() -> {
+			try {
+				limiter.release(limiter.acquire(), "GET", Outcome.SUCCESS);
+				acquired.countDown();
+			} catch (Exception e) {
+				// Leaves the latch unreleased, failing the test
+			}
+		});
+		waiter.start();
+
+		assertTrue(!acquired.await(200, TimeUnit.MILLISECONDS));
+		limiter.release(start, "GET", Outcome.SUCCESS);
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testAcquireAsyncWaitsForRelease() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1);
+
+		CompletableFuture<Long> first = limiter.acquireAsync();
+		CompletableFuture<Long> second = limiter.acquireAsync();
+		assertTrue(first.isDone());
+		assertFalse(second.isDone());
+
+		limiter.release(first.get(), "GET", Outcome.SUCCESS);
+		assertTrue(second.isDone());
+		assertEquals(1, limiter.getInFlight());
+
+		limiter.release(second.get(), "GET", Outcome.SUCCESS);
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void testBlockingAndAsyncWaitersAdmittedInOrder() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1);
+		long first = limiter.acquire();
+
+		CountDownLatch acquired = new CountDownLatch(1);
+		CountDownLatch released = new CountDownLatch(1);
+		Thread blockingWaiter = new Thread(() -> {
+			try {
+				long start = limiter.acquire();
+				acquired.countDown();
+				released.await();
+				limiter.release(start, "GET", Outcome.SUCCESS);
+			} catch (Exception e) {
+				// Leaves the latch unreleased, failing the test
+			}
+		});
+		blockingWaiter.start();
+		Thread.sleep(200);
+		CompletableFuture<Long> asyncWaiter = limiter.acquireAsync();
+
+		// The blocking caller asked first, so is admitted first
+		limiter.release(first, "GET", Outcome.SUCCESS);
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		assertFalse(asyncWaiter.isDone());
+
+		released.countDown();
+		limiter.release(asyncWaiter.get(5, TimeUnit.SECONDS), "GET", Outcome.SUCCESS);
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void testInterruptedCallerGivesUpItsPlace() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1);
+		long first = limiter.acquire();
+
+		Thread interrupted = new Thread(() -> {
+			try {
+				limiter.acquire();
+			} catch (Exception e) {
+				// Expected
+			}
+		});
+		interrupted.start();
+		Thread.sleep(100);
+		interrupted.interrupt();
+		interrupted.join(5000);
+
+		CompletableFuture<Long> next = limiter.acquireAsync();
+		limiter.release(first, "GET", Outcome.SUCCESS);
+		assertTrue(next.isDone());
+		assertEquals(1, limiter.getInFlight());
+	}
+
+	@Test
+	public void testCancelledWaiterGivesUpItsPlace() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1);
+
+		CompletableFuture<Long> first = limiter.acquireAsync();
+		CompletableFuture<Long> cancelled = limiter.acquireAsync();
+		CompletableFuture<Long> third = limiter.acquireAsync();
+		cancelled.cancel(false);
+
+		limiter.release(first.get(), "GET", Outcome.SUCCESS);
+		assertTrue(third.isDone());
+		assertEquals(1, limiter.getInFlight());
+	}
+}
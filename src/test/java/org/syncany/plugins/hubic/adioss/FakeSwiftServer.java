@@ -0,0 +1,702 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A minimal in-memory imitation of the Swift object store behind hubiC, served
+ * over plain HTTP on localhost.  Only the parts of the API that the plugin
+ * uses are supported.  The container <code>default</code> always exists.
+ */
+public class FakeSwiftServer {
+	public static final String DEFAULT_CONTAINER = "default";
+
+	private static final byte[] NOT_FOUND_BODY = "<html><h1>Not Found</h1><p>The resource could not be found.</p></html>".getBytes(StandardCharsets.UTF_8);
+
+	/**
+	 * Like the real Swift, listings are silently capped at this many entries.
+	 */
+	public static final int MAX_LISTING_PAGE_SIZE = 10000;
+
+	private final Map<String, ConcurrentNavigableMap<String, StoredObject>> containers = new ConcurrentHashMap<>();
+
+	private final List<Failure> failures = new CopyOnWriteArrayList<>();
+
+	private final AtomicInteger requestCount = new AtomicInteger();
+	private final AtomicInteger bulkDeleteCount = new AtomicInteger();
+	private final AtomicInteger archiveCount = new AtomicInteger();
+	private volatile boolean bulkSupported = true;
+	private volatile boolean rangesIgnored = false;
+	private final Set<InetSocketAddress> clientAddresses = ConcurrentHashMap.newKeySet();
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	public static class StoredObject {
+		public final byte[] data;
+		public final String contentType;
+		public final String etag;
+		public final long lastModified;
+
+		/**
+		 * For a static large object, the manifest as uploaded, otherwise null.
+		 */
+		public final String manifest;
+
+		public StoredObject(byte[] data, String contentType) {
+			this(data, contentType, md5(data), null);
+		}
+
+		StoredObject(byte[] data, String contentType, String etag, String manifest) {
+			this.data = data;
+			this.contentType = contentType;
+			this.etag = etag;
+			this.lastModified = System.currentTimeMillis();
+			this.manifest = manifest;
+		}
+	}
+
+	/**
+	 * A failure with a code of 0 cuts a ranged download short after
+	 * <code>bytes</code> bytes, as a dropped connection would.  A failure
+	 * with a code of -1 flips a byte of the body, as a corrupting network
+	 * would.
+	 */
+	private static class Failure {
+		final String method;
+		final String pathPrefix;
+		final int code;
+		final int bytes;
+		final String retryAfter;
+		final AtomicInteger remaining;
+
+		Failure(String method, String pathPrefix, int code, int bytes, String retryAfter, int count) {
+			this.method = method;
+			this.pathPrefix = pathPrefix;
+			this.code = code;
+			this.bytes = bytes;
+			this.retryAfter = retryAfter;
+			this.remaining = new AtomicInteger(count);
+		}
+	}
+
+	public FakeSwiftServer() throws IOException {
+		containers.put(DEFAULT_CONTAINER, new ConcurrentSkipListMap<String, StoredObject>());
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * The URL to give to {@link HubicClient} as the endpoint.
+	 */
+	public String getEndpoint() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * The objects in the <code>default</code> container.
+	 */
+	public ConcurrentNavigableMap<String, StoredObject> getObjects() {
+		return containers.get(DEFAULT_CONTAINER);
+	}
+
+	/**
+	 * @return the objects in the given container, or null if it does not exist
+	 */
+	public ConcurrentNavigableMap<String, StoredObject> getObjects(String container) {
+		return containers.get(container);
+	}
+
+	/**
+	 * The number of requests handled so far.
+	 */
+	public int getRequestCount() {
+		return requestCount.get();
+	}
+
+	/**
+	 * The number of connections that requests have arrived on so far.
+	 */
+	public int getConnectionCount() {
+		return clientAddresses.size();
+	}
+
+	/**
+	 * The number of bulk delete requests handled so far.
+	 */
+	public int getBulkDeleteCount() {
+		return bulkDeleteCount.get();
+	}
+
+	/**
+	 * The number of archive uploads extracted so far.
+	 */
+	public int getArchiveCount() {
+		return archiveCount.get();
+	}
+
+	/**
+	 * Makes the server behave as Swift without the bulk middleware, which
+	 * takes a bulk delete as an account POST and deletes nothing, and an
+	 * archive upload as a container PUT and creates nothing.
+	 */
+	public void disableBulk() {
+		bulkSupported = false;
+	}
+
+	/**
+	 * Makes downloads ignore the <code>Range</code> header and send the whole
+	 * object chunked, without a <code>Content-Length</code>, as some proxies do.
+	 */
+	public void ignoreRanges() {
+		rangesIgnored = true;
+	}
+
+	/**
+	 * Makes the next <code>count</code> requests with the given method, to
+	 * paths starting with the given prefix, fail with the given code.
+	 */
+	public void failRequests(String method, String pathPrefix, int code, int count) {
+		failures.add(new Failure(method, pathPrefix, code, 0, null, count));
+	}
+
+	/**
+	 * Like {@link #failRequests}, but with code 429 and a <code>Retry-After</code> header.
+	 */
+	public void throttleRequests(String method, String pathPrefix, String retryAfter, int count) {
+		failures.add(new Failure(method, pathPrefix, 429, 0, retryAfter, count));
+	}
+
+	/**
+	 * Makes the next <code>count</code> ranged GET requests to paths starting
+	 * with the given prefix send only the first <code>bytes</code> bytes of the
+	 * range, so that the client has to resume the rest.  If ranges are
+	 * ignored, the connection is closed part way through the whole object.
+	 */
+	public void dropDownloads(String pathPrefix, int bytes, int count) {
+		failures.add(new Failure("GET", pathPrefix, 0, bytes, null, count));
+	}
+
+	/**
+	 * Makes the next <code>count</code> uploads (PUT) or downloads (GET) with
+	 * paths starting with the given prefix corrupt the first byte of the
+	 * body, which for an upload is then stored as received.
+	 */
+	public void corruptRequests(String method, String pathPrefix, int count) {
+		failures.add(new Failure(method, pathPrefix, -1, 0, null, count));
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			requestCount.incrementAndGet();
+			clientAddresses.add(exchange.getRemoteAddress());
+
+			String path = exchange.getRequestURI().getPath();
+			Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+			Failure drop = null;
+			for (Failure failure : failures) {
+				if (failure.method.equals(exchange.getRequestMethod()) && path.startsWith(failure.pathPrefix)
+						&& failure.remaining.getAndDecrement() > 0) {
+					if (failure.code <= 0) {
+						drop = failure;
+						break;
+					}
+					readFully(exchange.getRequestBody());
+					if (failure.retryAfter != null) {
+						exchange.getResponseHeaders().add("Retry-After", failure.retryAfter);
+					}
+					send(exchange, failure.code, null);
+					return;
+				}
+			}
+
+			if (path.isEmpty() || path.equals("/")) {
+				handleAccount(exchange, query);
+				return;
+			}
+
+			String[] parts = path.substring(1).split("/", 2);
+			String container = parts[0];
+			if (parts.length == 1 || parts[1].isEmpty()) {
+				handleContainer(exchange, container, query);
+			} else {
+				ConcurrentNavigableMap<String, StoredObject> objects = containers.get(container);
+				if (objects == null) {
+					readFully(exchange.getRequestBody());
+					send(exchange, 404, null);
+				} else {
+					handleObject(exchange, objects, parts[1], query, drop);
+				}
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void handleAccount(HttpExchange exchange, Map<String, String> query) throws IOException {
+		byte[] body = readFully(exchange.getRequestBody());
+		if (!"POST".equals(exchange.getRequestMethod()) || !query.containsKey("bulk-delete") || !bulkSupported) {
+			send(exchange, 204, null);
+			return;
+		}
+		bulkDeleteCount.incrementAndGet();
+
+		// Deletes of objects matching a failing DELETE are reported as errors
+		int deleted = 0;
+		int notFound = 0;
+		JsonArray errors = new JsonArray();
+		for (String line : new String(body, StandardCharsets.UTF_8).split("\n")) {
+			if (line.isEmpty()) {
+				continue;
+			}
+			String path = URLDecoder.decode(line, "UTF-8");
+			String[] parts = path.substring(1).split("/", 2);
+			ConcurrentNavigableMap<String, StoredObject> objects = containers.get(parts[0]);
+
+			boolean failed = false;
+			for (Failure failure : failures) {
+				if (failure.method.equals("DELETE") && path.startsWith(failure.pathPrefix) && failure.remaining.getAndDecrement() > 0) {
+					failed = true;
+					break;
+				}
+			}
+
+			if (failed) {
+				JsonArray error = new JsonArray();
+				error.add(line);
+				error.add("503 Service Unavailable");
+				errors.add(error);
+			} else if (objects != null && objects.remove(parts[1]) != null) {
+				deleted++;
+			} else {
+				notFound++;
+			}
+		}
+
+		JsonObject result = new JsonObject();
+		result.addProperty("Number Deleted", deleted);
+		result.addProperty("Number Not Found", notFound);
+		result.addProperty("Response Status", errors.size() == 0 ? "200 OK" : "400 Bad Request");
+		result.addProperty("Response Body", "");
+		result.add("Errors", errors);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		send(exchange, 200, result.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Extracts a ustar archive into objects.  Files matching a failing PUT
+	 * are reported as errors instead.
+	 */
+	private void extractArchive(HttpExchange exchange, String container, ConcurrentNavigableMap<String, StoredObject> objects, byte[] archive)
+			throws IOException {
+		archiveCount.incrementAndGet();
+
+		int created = 0;
+		JsonArray errors = new JsonArray();
+		for (int offset = 0; offset + 512 <= archive.length && archive[offset] != 0; ) {
+			String name = readString(archive, offset, 100);
+			String prefix = readString(archive, offset + 345, 155);
+			String path = prefix.isEmpty() ? name : prefix + "/" + name;
+			int size = Integer.parseInt(readString(archive, offset + 124, 12).trim(), 8);
+			byte[] data = Arrays.copyOfRange(archive, offset + 512, offset + 512 + size);
+			offset += 512 + (size + 511) / 512 * 512;
+
+			boolean failed = false;
+			for (Failure failure : failures) {
+				if (failure.method.equals("PUT") && ("/" + container + "/" + path).startsWith(failure.pathPrefix)
+						&& failure.remaining.getAndDecrement() > 0) {
+					failed = true;
+					break;
+				}
+			}
+
+			if (failed) {
+				JsonArray error = new JsonArray();
+				error.add("/v1/AUTH_test/" + container + "/" + path.replace(" ", "%20"));
+				error.add("503 Service Unavailable");
+				errors.add(error);
+			} else {
+				objects.put(path, new StoredObject(data, "application/octet-stream"));
+				created++;
+			}
+		}
+
+		JsonObject result = new JsonObject();
+		result.addProperty("Number Files Created", created);
+		result.addProperty("Response Status", errors.size() == 0 ? "201 Created" : "400 Bad Request");
+		result.addProperty("Response Body", "");
+		result.add("Errors", errors);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		send(exchange, 200, result.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String readString(byte[] buffer, int offset, int length) {
+		int end = offset;
+		while (end < offset + length && buffer[end] != 0) {
+			end++;
+		}
+		return new String(buffer, offset, end - offset, StandardCharsets.UTF_8);
+	}
+
+	private void handleContainer(HttpExchange exchange, String container, Map<String, String> query) throws IOException {
+		ConcurrentNavigableMap<String, StoredObject> objects = containers.get(container);
+
+		switch (exchange.getRequestMethod()) {
+		case "PUT": {
+			byte[] body = readFully(exchange.getRequestBody());
+			if ("tar".equals(query.get("extract-archive")) && bulkSupported && objects != null) {
+				extractArchive(exchange, container, objects, body);
+				return;
+			}
+			boolean created = containers.putIfAbsent(container, new ConcurrentSkipListMap<String, StoredObject>()) == null;
+			send(exchange, created ? 201 : 202, null);
+			return;
+		}
+		case "HEAD": {
+			if (objects == null) {
+				send(exchange, 404, null);
+			} else {
+				addContainerHeaders(exchange, objects);
+				send(exchange, 204, null);
+			}
+			return;
+		}
+		case "GET":
+			break;
+		default:
+			send(exchange, 405, null);
+			return;
+		}
+
+		if (objects == null) {
+			send(exchange, 404, null);
+			return;
+		}
+
+		// Like Swift, 'prefix' lists every object under it, while 'path' lists
+		// only the direct children of the given pseudo-directory
+		boolean childrenOnly = !query.containsKey("prefix");
+		String prefix = childrenOnly ? (query.containsKey("path") ? query.get("path") : "") : query.get("prefix");
+		if (childrenOnly && !prefix.isEmpty() && !prefix.endsWith("/")) {
+			prefix = prefix + "/";
+		}
+
+		String marker = query.get("marker");
+		int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : MAX_LISTING_PAGE_SIZE;
+
+		JsonArray listing = new JsonArray();
+		Map<String, StoredObject> candidates = marker != null ? objects.tailMap(marker, false) : objects;
+		for (Map.Entry<String, StoredObject> entry : candidates.entrySet()) {
+			if (listing.size() >= Math.min(limit, MAX_LISTING_PAGE_SIZE)) {
+				break;
+			}
+			String name = entry.getKey();
+			if (name.startsWith(prefix) && (!childrenOnly || name.indexOf('/', prefix.length()) == -1) && name.length() > prefix.length()) {
+				JsonObject object = new JsonObject();
+				object.addProperty("name", name);
+				object.addProperty("content_type", entry.getValue().contentType);
+				object.addProperty("bytes", entry.getValue().data.length);
+				object.addProperty("hash", entry.getValue().etag);
+				listing.add(object);
+			}
+		}
+
+		addContainerHeaders(exchange, objects);
+		exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+		send(exchange, 200, listing.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void handleObject(HttpExchange exchange, ConcurrentNavigableMap<String, StoredObject> objects, String name,
+			Map<String, String> query, Failure drop) throws IOException {
+		switch (exchange.getRequestMethod()) {
+		case "PUT": {
+			byte[] data = readFully(exchange.getRequestBody());
+			String copyFrom = exchange.getRequestHeaders().getFirst("X-Copy-From");
+			if (copyFrom != null) {
+				String[] source = copyFrom.split("/", 2);
+				StoredObject sourceObject = containers.containsKey(source[0]) ? containers.get(source[0]).get(source[1]) : null;
+				if (sourceObject == null) {
+					send(exchange, 404, null);
+					return;
+				}
+				if (sourceObject.manifest != null && !"get".equals(query.get("multipart-manifest"))) {
+					// Copying a large object without multipart-manifest=get copies its content
+					objects.put(name, new StoredObject(sourceObject.data, sourceObject.contentType));
+				} else {
+					objects.put(name, sourceObject);
+				}
+			} else if ("put".equals(query.get("multipart-manifest"))) {
+				StoredObject manifestObject = assembleManifest(new String(data, StandardCharsets.UTF_8));
+				if (manifestObject == null) {
+					send(exchange, 400, null);
+					return;
+				}
+				objects.put(name, manifestObject);
+			} else {
+				data = corrupt(data, drop);
+				String expectedEtag = exchange.getRequestHeaders().getFirst("ETag");
+				if (expectedEtag != null && !unquote(expectedEtag).equalsIgnoreCase(md5(data))) {
+					// Like Swift, a body that does not match its ETag is not stored
+					send(exchange, 422, null);
+					return;
+				}
+				String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+				StoredObject stored = new StoredObject(data, contentType != null ? contentType : "application/octet-stream");
+				objects.put(name, stored);
+				exchange.getResponseHeaders().add("ETag", stored.etag);
+			}
+			send(exchange, 201, null);
+			break;
+		}
+		case "GET": {
+			StoredObject object = objects.get(name);
+			if (object == null) {
+				// Like Swift, a failed GET has a body, which must be read for the connection to be reused
+				send(exchange, 404, NOT_FOUND_BODY);
+				break;
+			}
+
+			String ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+			if (ifMatch != null && !unquote(ifMatch).equals(unquote(object.etag))) {
+				send(exchange, 412, null);
+				break;
+			}
+
+			addMetadataHeaders(exchange, object);
+			String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+			if (ifNoneMatch != null && unquote(ifNoneMatch).equals(unquote(object.etag))) {
+				send(exchange, 304, null);
+				break;
+			}
+
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			if (rangesIgnored && drop != null && drop.code == 0) {
+				// Promises the whole object, then closes the connection early
+				readFully(exchange.getRequestBody());
+				exchange.sendResponseHeaders(200, object.data.length);
+				exchange.getResponseBody().write(object.data, 0, drop.bytes);
+				exchange.getResponseBody().flush();
+				exchange.close();
+				break;
+			}
+			if (rangesIgnored) {
+				readFully(exchange.getRequestBody());
+				exchange.sendResponseHeaders(200, 0);
+				try (OutputStream outputStream = exchange.getResponseBody()) {
+					outputStream.write(corrupt(object.data, drop));
+				}
+				break;
+			}
+			if (range == null) {
+				send(exchange, 200, corrupt(object.data, drop));
+				break;
+			}
+
+			String[] bounds = range.substring("bytes=".length()).split("-");
+			int first = Integer.parseInt(bounds[0]);
+			int last = Math.min(Integer.parseInt(bounds[1]), object.data.length - 1);
+			if (first > last) {
+				send(exchange, 416, null);
+				break;
+			}
+			if (drop != null && drop.code == 0) {
+				last = Math.min(last, first + drop.bytes - 1);
+			}
+			exchange.getResponseHeaders().add("Content-Range", "bytes " + first + "-" + last + "/" + object.data.length);
+			send(exchange, 206, corrupt(Arrays.copyOfRange(object.data, first, last + 1), drop));
+			break;
+		}
+		case "HEAD": {
+			StoredObject object = objects.get(name);
+			if (object == null) {
+				send(exchange, 404, null);
+			} else {
+				readFully(exchange.getRequestBody());
+				addMetadataHeaders(exchange, object);
+				exchange.getResponseHeaders().add("Content-Length", Integer.toString(object.data.length));
+				exchange.sendResponseHeaders(200, -1);
+			}
+			break;
+		}
+		case "DELETE": {
+			StoredObject object = objects.remove(name);
+			if (object != null && object.manifest != null && "delete".equals(query.get("multipart-manifest"))) {
+				for (JsonElement segment : new JsonParser().parse(object.manifest).getAsJsonArray()) {
+					String[] segmentPath = segment.getAsJsonObject().get("path").getAsString().substring(1).split("/", 2);
+					containers.get(segmentPath[0]).remove(segmentPath[1]);
+				}
+			}
+			send(exchange, object != null ? 204 : 404, null);
+			break;
+		}
+		default:
+			send(exchange, 405, null);
+		}
+	}
+
+	/**
+	 * @return the large object described by the manifest, or null if a segment is missing or does not match
+	 */
+	private StoredObject assembleManifest(String manifest) {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		StringBuilder etags = new StringBuilder();
+
+		for (JsonElement segment : new JsonParser().parse(manifest).getAsJsonArray()) {
+			JsonObject segmentObject = segment.getAsJsonObject();
+			String[] segmentPath = segmentObject.get("path").getAsString().substring(1).split("/", 2);
+			ConcurrentNavigableMap<String, StoredObject> segmentContainer = containers.get(segmentPath[0]);
+			StoredObject stored = segmentContainer != null ? segmentContainer.get(segmentPath[1]) : null;
+			if (stored == null || !stored.etag.equals(segmentObject.get("etag").getAsString())
+					|| stored.data.length != segmentObject.get("size_bytes").getAsLong()) {
+				return null;
+			}
+			content.write(stored.data, 0, stored.data.length);
+			etags.append(stored.etag);
+		}
+
+		// Like Swift, the ETag of a large object is the quoted MD5 of its segments' ETags
+		String etag = "\"" + md5(etags.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+		return new StoredObject(content.toByteArray(), "application/octet-stream", etag, manifest);
+	}
+
+	private static void addContainerHeaders(HttpExchange exchange, Map<String, StoredObject> objects) {
+		long bytesUsed = 0;
+		List<StoredObject> snapshot = new ArrayList<>(objects.values());
+		for (StoredObject object : snapshot) {
+			bytesUsed += object.data.length;
+		}
+		exchange.getResponseHeaders().add("X-Container-Object-Count", Integer.toString(snapshot.size()));
+		exchange.getResponseHeaders().add("X-Container-Bytes-Used", Long.toString(bytesUsed));
+	}
+
+	private static void addMetadataHeaders(HttpExchange exchange, StoredObject object) {
+		exchange.getResponseHeaders().add("ETag", object.etag);
+		exchange.getResponseHeaders().add("Last-Modified",
+				DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(object.lastModified).atZone(ZoneOffset.UTC)));
+		if (object.manifest != null) {
+			exchange.getResponseHeaders().add("X-Static-Large-Object", "True");
+		}
+	}
+
+	/**
+	 * @return the data with its first byte flipped if the failure corrupts
+	 *         bodies, otherwise the data as it is
+	 */
+	private static byte[] corrupt(byte[] data, Failure failure) {
+		if (failure == null || failure.code != -1 || data.length == 0) {
+			return data;
+		}
+		byte[] corrupted = data.clone();
+		corrupted[0] ^= 0xff;
+		return corrupted;
+	}
+
+	static String md5(byte[] data) {
+		MessageDigest md5 = Checksums.newMd5();
+		return Checksums.toHex(md5.digest(data));
+	}
+
+	private static String unquote(String etag) {
+		return etag.startsWith("\"") ? etag.substring(1, etag.length() - 1) : etag;
+	}
+
+	private static void send(HttpExchange exchange, int code, byte[] body) throws IOException {
+		// The JDK server closes the connection after an empty response unless the
+		// request body was read, which would hide whether clients reuse connections
+		readFully(exchange.getRequestBody());
+
+		if (body == null || body.length == 0) {
+			exchange.sendResponseHeaders(code, -1);
+		} else {
+			exchange.sendResponseHeaders(code, body.length);
+			try (OutputStream outputStream = exchange.getResponseBody()) {
+				outputStream.write(body);
+			}
+		}
+	}
+
+	private static byte[] readFully(InputStream inputStream) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int bytesRead;
+		while ((bytesRead = inputStream.read(buffer)) != -1) {
+			outputStream.write(buffer, 0, bytesRead);
+		}
+		return outputStream.toByteArray();
+	}
+
+	private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+		Map<String, String> query = new HashMap<>();
+		if (rawQuery != null) {
+			for (String parameter : rawQuery.split("&")) {
+				int equals = parameter.indexOf('=');
+				String key = equals == -1 ? parameter : parameter.substring(0, equals);
+				String value = equals == -1 ? "" : parameter.substring(equals + 1);
+				query.put(URLDecoder.decode(key, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+			}
+		}
+		return query;
+	}
+}
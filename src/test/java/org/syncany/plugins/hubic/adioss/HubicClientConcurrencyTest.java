@@ -0,0 +1,118 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+
+/**
+ * Hammers one {@link HubicClient} from many threads at once and checks that no
+ * request picks up the URL, headers or body of another.
+ */
+public class HubicClientConcurrencyTest {
+	private static final int THREADS = 16;
+	private static final int ITERATIONS = 50;
+
+	private FakeSwiftServer server;
+	private HubicClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new FakeSwiftServer();
+		server.start();
+		client = new HubicClient(server.getEndpoint(), "test-token");
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Test
+	public void testConcurrentRequestsDoNotInterfere() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Void>> results = new ArrayList<>();
+
+		try {
+			for (int thread = 0; thread < THREADS; thread++) {
+				final String directory = "thread" + thread + "/";
+				results.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						start.await();
+						File localFile = File.createTempFile("hubic-concurrency", ".bin");
+						try {
+							for (int i = 0; i < ITERATIONS; i++) {
+								String path = directory + "file" + i;
+								byte[] content = (path + " content").getBytes(StandardCharsets.UTF_8);
+
+								assertEquals(201, client.upload(new ByteArrayInputStream(content), path).getCode());
+
+								assertEquals(200, client.download(path, localFile).getCode());
+								assertArrayEquals(content, Files.readAllBytes(localFile.toPath()));
+
+								Response listResponse = client.listDirectory(directory);
+								assertEquals(200, listResponse.getCode());
+								JsonArray listing = (JsonArray) listResponse.getContent();
+								assertEquals(i + 1, listing.size());
+								for (int j = 0; j < listing.size(); j++) {
+									String name = listing.get(j).getAsJsonObject().get("name").getAsString();
+									assertTrue(name, name.startsWith(directory));
+								}
+							}
+						} finally {
+							localFile.delete();
+						}
+						return null;
+					}
+				}));
+			}
+
+			start.countDown();
+			for (Future<Void> result : results) {
+				result.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(THREADS * ITERATIONS, server.getObjects().size());
+	}
+}
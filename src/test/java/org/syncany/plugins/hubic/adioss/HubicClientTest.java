@@ -0,0 +1,323 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.MalformedURLException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HubicClientTest {
+	private FakeSwiftServer server;
+	private HubicClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new FakeSwiftServer();
+		server.start();
+		client = new HubicClient(server.getEndpoint(), "test-token", new RetryPolicy(3, 1, 2000));
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Test
+	public void testHeadReturnsMetadata() throws Exception {
+		byte[] content = "some content".getBytes(StandardCharsets.UTF_8);
+		server.getObjects().put("databases/database-1", new FakeSwiftServer.StoredObject(content, "application/octet-stream"));
+
+		Response response = client.head("databases/database-1");
+		assertEquals(200, response.getCode());
+
+		ObjectMetadata metadata = ObjectMetadata.fromResponse(response);
+		assertEquals(content.length, metadata.getSize());
+		assertEquals(FakeSwiftServer.md5(content), metadata.getEtag());
+		assertTrue(metadata.getLastModified() > 0);
+	}
+
+	@Test
+	public void testHeadOfMissingObject() throws Exception {
+		assertEquals(404, client.head("databases/missing").getCode());
+	}
+
+	@Test
+	public void testRetriesTransientFailures() throws Exception {
+		server.failRequests("PUT", "/default/databases/", 503, 2);
+
+		assertEquals(201, client.createDirectory("databases/database-1").getCode());
+		assertEquals(3, server.getRequestCount());
+		assertEquals(2, client.getRetryCount());
+	}
+
+	@Test
+	public void testGivesUpAfterMaxAttempts() throws Exception {
+		server.failRequests("HEAD", "/default/databases/", 503, 5);
+
+		assertEquals(503, client.head("databases/database-1").getCode());
+		assertEquals(3, server.getRequestCount());
+		assertEquals(1, client.getExhaustedCount());
+	}
+
+	@Test
+	public void testDoesNotRetryStreamUploads() throws Exception {
+		server.failRequests("PUT", "/default/databases/", 503, 1);
+
+		assertEquals(503, client.upload(new ByteArrayInputStream(new byte[10]), "databases/database-1").getCode());
+		assertEquals(1, server.getRequestCount());
+		assertFalse(server.getObjects().containsKey("databases/database-1"));
+	}
+
+	@Test
+	public void testDoesNotRetryLocalFailures() throws Exception {
+		File missing = new File(Files.createTempDirectory("hubic-client").toFile(), "missing");
+		try {
+			client.upload(missing, "databases/database-1");
+			fail("Uploaded a missing file");
+		} catch (IOException e) {
+			// Expected
+		} finally {
+			missing.getParentFile().delete();
+		}
+
+		assertEquals(0, client.getRetryCount());
+		assertEquals(1, client.getAttemptCount());
+	}
+
+	@Test
+	public void testRetryableFailures() {
+		RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+		assertTrue(retryPolicy.isRetryable(new SocketTimeoutException()));
+		assertTrue(retryPolicy.isRetryable(new ConnectException()));
+		assertTrue(retryPolicy.isRetryable(new SocketException("Connection reset")));
+		assertTrue(retryPolicy.isRetryable(new IOException("Body source ended 10 bytes early")));
+
+		assertFalse(retryPolicy.isRetryable(new FileNotFoundException()));
+		assertFalse(retryPolicy.isRetryable(new NoSuchFileException("missing")));
+		assertFalse(retryPolicy.isRetryable(new MalformedURLException()));
+		assertFalse(retryPolicy.isRetryable(new IOException("Invalid URL", new URISyntaxException("x", "bad"))));
+		assertFalse(retryPolicy.isRetryable(new InterruptedIOException()));
+		assertFalse(retryPolicy.isRetryable(new IllegalStateException()));
+	}
+
+	@Test
+	public void testBulkDeleteIsTheOnlyIdempotentPost() {
+		assertTrue(HttpRequest.post("http://localhost/").urlParameter("bulk-delete", "true").isIdempotent());
+		assertFalse(HttpRequest.post("http://localhost/").isIdempotent());
+		assertTrue(HttpRequest.put("http://localhost/").isIdempotent());
+		assertFalse(HttpRequest.put("http://localhost/").body(new ByteArrayInputStream(new byte[10]), 10).isIdempotent());
+	}
+
+	@Test
+	public void testHonoursRetryAfter() throws Exception {
+		server.throttleRequests("HEAD", "/default/databases/", "1", 1);
+		server.getObjects().put("databases/database-1", new FakeSwiftServer.StoredObject(new byte[10], "application/octet-stream"));
+
+		long start = System.currentTimeMillis();
+		assertEquals(200, client.head("databases/database-1").getCode());
+		assertTrue(System.currentTimeMillis() - start >= 1000);
+	}
+
+	@Test
+	public void testDoesNotWaitLongerThanMaxDelay() throws Exception {
+		server.throttleRequests("HEAD", "/default/databases/", "3600", 1);
+
+		assertEquals(429, client.head("databases/database-1").getCode());
+		assertEquals(1, server.getRequestCount());
+	}
+
+	@Test
+	public void testReusesConnectionAfterFailures() throws Exception {
+		File localFile = File.createTempFile("hubic-client", ".download");
+		try {
+			for (int i = 0; i < 10; i++) {
+				assertEquals(404, client.download("databases/missing-" + i, localFile).getCode());
+				assertEquals(404, client.head("databases/missing-" + i).getCode());
+				assertEquals(404, client.delete("databases/missing-" + i).getCode());
+			}
+		} finally {
+			localFile.delete();
+		}
+
+		assertEquals(30, server.getRequestCount());
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	@Test
+	public void testAsyncRequestsWaitForTheLimiter() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 2, 2);
+		HubicClient limitedClient = new HubicClient(server.getEndpoint(), "test-token", new RetryPolicy(3, 1, 2000), limiter);
+		for (int i = 0; i < 20; i++) {
+			server.getObjects().put("databases/database-" + i, new FakeSwiftServer.StoredObject(new byte[10], "application/octet-stream"));
+		}
+
+		List<CompletableFuture<Response>> deletes = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			deletes.add(limitedClient.deleteAsync("databases/database-" + i));
+		}
+		for (CompletableFuture<Response> delete : deletes) {
+			assertEquals(204, HubicClient.await(delete).getCode());
+		}
+
+		assertTrue(server.getObjects().isEmpty());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void testAsyncRequestsRetry() throws Exception {
+		server.failRequests("HEAD", "/default/databases/", 503, 2);
+		server.getObjects().put("databases/database-1", new FakeSwiftServer.StoredObject(new byte[10], "application/octet-stream"));
+
+		CompletableFuture<Response> head = client.headAsync("databases/database-1");
+		assertEquals(200, HubicClient.await(head).getCode());
+		assertEquals(2, client.getRetryCount());
+	}
+
+	@Test
+	public void testCorruptUploadRetried() throws Exception {
+		File file = createFile(1024 * 1024);
+		try {
+			server.corruptRequests("PUT", "/default/multichunks/", 1);
+
+			assertEquals(201, client.upload(file, "multichunks/multichunk-1").getCode());
+			assertEquals(FakeSwiftServer.md5(Files.readAllBytes(file.toPath())), server.getObjects().get("multichunks/multichunk-1").etag);
+			assertEquals(1, client.getCorruptCount());
+			assertEquals(2, server.getRequestCount());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testSmallUploadRejectedByServerRetried() throws Exception {
+		File file = createFile(1000);
+		try {
+			server.corruptRequests("PUT", "/default/actions/", 2);
+
+			assertEquals(201, client.upload(file, "actions/action-1").getCode());
+			assertEquals(FakeSwiftServer.md5(Files.readAllBytes(file.toPath())), server.getObjects().get("actions/action-1").etag);
+			assertEquals(2, client.getCorruptCount());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testCorruptDownloadRetried() throws Exception {
+		byte[] content = new byte[5000];
+		new Random().nextBytes(content);
+		server.getObjects().put("multichunks/multichunk-1", new FakeSwiftServer.StoredObject(content, "application/octet-stream"));
+		server.corruptRequests("GET", "/default/multichunks/", 2);
+		File file = File.createTempFile("hubic-download", ".bin");
+		try {
+			assertEquals(200, client.download("multichunks/multichunk-1", file).getCode());
+			assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+
+			server.corruptRequests("GET", "/default/multichunks/", 1);
+			assertEquals(206, client.downloadRange("multichunks/multichunk-1", file, 0, 9999, null).getCode());
+			assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+			assertEquals(3, client.getCorruptCount());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testDroppedWholeObjectNotCorrupt() throws Exception {
+		byte[] content = new byte[5000];
+		new Random().nextBytes(content);
+		server.getObjects().put("multichunks/multichunk-1", new FakeSwiftServer.StoredObject(content, "application/octet-stream"));
+		server.ignoreRanges();
+		server.dropDownloads("/default/multichunks/", 300, 1);
+		File file = File.createTempFile("hubic-download", ".bin");
+		try {
+			Response response = client.downloadRange("multichunks/multichunk-1", file, 0, 999, null);
+
+			// Left for the caller to resume, rather than downloaded again from the start
+			assertEquals(200, response.getCode());
+			assertEquals(300L, response.getContent());
+			assertEquals(0, client.getCorruptCount());
+			assertEquals(1, server.getRequestCount());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testGivesUpOnPersistentCorruption() throws Exception {
+		byte[] content = new byte[5000];
+		server.getObjects().put("multichunks/multichunk-1", new FakeSwiftServer.StoredObject(content, "application/octet-stream"));
+		server.corruptRequests("GET", "/default/multichunks/", 3);
+		File file = File.createTempFile("hubic-download", ".bin");
+		try {
+			client.download("multichunks/multichunk-1", file);
+			fail("Expected an IOException");
+		} catch (IOException e) {
+			assertEquals(3, client.getCorruptCount());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testPartialRangeNotChecked() throws Exception {
+		byte[] content = new byte[5000];
+		server.getObjects().put("multichunks/multichunk-1", new FakeSwiftServer.StoredObject(content, "application/octet-stream"));
+		File file = File.createTempFile("hubic-download", ".bin");
+		try {
+			assertEquals(206, client.downloadRange("multichunks/multichunk-1", file, 0, 999, null).getCode());
+			assertEquals(0, client.getCorruptCount());
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static File createFile(int size) throws IOException {
+		byte[] content = new byte[size];
+		new Random().nextBytes(content);
+		File file = File.createTempFile("hubic-upload", ".bin");
+		Files.write(file.toPath(), content);
+		return file;
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.DigestOutputStream;
+import java.util.Random;
+
+/**
+ * Compares copying a file as an upload or download does, with and without
+ * hashing it inline for the integrity check, and with hashing it in a pass of
+ * its own before the copy.  The inline hash should cost only the CPU time of
+ * MD5, which is well below the speed of any connection to hubiC, while the
+ * separate pass also reads the file a second time.
+ */
+public class IntegrityBenchmark {
+	private static final int MB = 1024 * 1024;
+	private static final int[] FILE_SIZES = { 1 * MB, 16 * MB, 64 * MB };
+	private static final int ROUNDS = 10;
+
+	public static void main(String[] args) throws Exception {
+		System.out.println("file size (MB)\tplain copy (MB/s)\tinline MD5 (MB/s)\tseparate MD5 pass (MB/s)");
+
+		for (int size : FILE_SIZES) {
+			byte[] content = new byte[size];
+			new Random().nextBytes(content);
+			File file = File.createTempFile("hubic-integrity-benchmark", ".bin");
+			file.deleteOnExit();
+			Files.write(file.toPath(), content);
+
+			// Warms up the JIT and the disk cache
+			for (int i = 0; i < 3; i++) {
+				copy(file, false);
+				copy(file, true);
+			}
+
+			long plainNanos = 0;
+			long inlineNanos = 0;
+			long separateNanos = 0;
+			for (int i = 0; i < ROUNDS; i++) {
+				long start = System.nanoTime();
+				copy(file, false);
+				plainNanos += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				copy(file, true);
+				inlineNanos += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				Checksums.md5Hex(file.toPath());
+				copy(file, false);
+				separateNanos += System.nanoTime() - start;
+			}
+
+			System.out.printf("%d\t%.0f\t%.0f\t%.0f%n", size / MB, throughput(size, plainNanos), throughput(size, inlineNanos),
+					throughput(size, separateNanos));
+			file.delete();
+		}
+	}
+
+	/**
+	 * Reads the file into a stream that discards it, through the same buffer
+	 * size as the transports.
+	 */
+	private static void copy(File file, boolean hashed) throws IOException {
+		OutputStream discard = new OutputStream() {
+			@Override
+			public void write(int b) {
+				// Discard
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				// Discard
+			}
+		};
+		try (InputStream inputStream = new FileInputStream(file);
+				OutputStream outputStream = hashed ? new DigestOutputStream(discard, Checksums.newMd5()) : discard) {
+			ResponseReader.copy(inputStream, outputStream);
+		}
+	}
+
+	private static double throughput(int size, long nanos) {
+		return (double) size * ROUNDS / MB / (nanos / 1e9);
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JavaHttpClientTransportTest {
+	private FakeSwiftServer server;
+	private HubicClient client;
+	private File localFile;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new FakeSwiftServer();
+		server.start();
+		client = new HubicClient(server.getEndpoint(), "test-token", new RetryPolicy(3, 1, 2000), ConcurrencyLimiter.unlimited(),
+				new JavaHttpClientTransport());
+		localFile = File.createTempFile("hubic-transport", ".data");
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		localFile.delete();
+	}
+
+	@Test
+	public void testCreatedByName() {
+		assertTrue(HttpTransports.create(HttpTransports.HTTP_CLIENT) instanceof JavaHttpClientTransport);
+		assertTrue(HttpTransports.create(HttpTransports.URL_CONNECTION) instanceof HttpAPI);
+	}
+
+	@Test
+	public void testUploadAndDownloadFile() throws Exception {
+		byte[] content = content(100000);
+		Files.write(localFile.toPath(), content);
+
+		assertEquals(201, client.upload(localFile, "multichunks/multichunk-1").getCode());
+		assertArrayEquals(content, server.getObjects().get("multichunks/multichunk-1").data);
+
+		Files.write(localFile.toPath(), new byte[0]);
+		assertEquals(200, client.download("multichunks/multichunk-1", localFile).getCode());
+		assertArrayEquals(content, Files.readAllBytes(localFile.toPath()));
+	}
+
+	@Test
+	public void testCorruptTransfersRetried() throws Exception {
+		byte[] content = content(1000000);
+		Files.write(localFile.toPath(), content);
+		server.corruptRequests("PUT", "/default/multichunks/", 1);
+		server.corruptRequests("GET", "/default/multichunks/", 1);
+
+		assertEquals(201, client.upload(localFile, "multichunks/multichunk-1").getCode());
+		assertArrayEquals(content, server.getObjects().get("multichunks/multichunk-1").data);
+		assertEquals(200, client.download("multichunks/multichunk-1", localFile).getCode());
+		assertArrayEquals(content, Files.readAllBytes(localFile.toPath()));
+		assertEquals(2, client.getCorruptCount());
+	}
+
+	@Test
+	public void testUploadStreamAndSegment() throws Exception {
+		byte[] content = content(5000);
+		assertEquals(201, client.upload(new ByteArrayInputStream(content), "databases/database-1").getCode());
+		assertArrayEquals(content, server.getObjects().get("databases/database-1").data);
+
+		Files.write(localFile.toPath(), content);
+		assertEquals(201, client.createSegmentsContainer().getCode());
+		assertEquals(201, client.uploadSegment(localFile, 1000, 2000, "databases/database-1/segment").getCode());
+		assertArrayEquals(Arrays.copyOfRange(content, 1000, 3000), server.getObjects("default_segments").get("databases/database-1/segment").data);
+	}
+
+	@Test
+	public void testDownloadRange() throws Exception {
+		byte[] content = content(10000);
+		server.getObjects().put("multichunks/multichunk-1", new FakeSwiftServer.StoredObject(content, "application/octet-stream"));
+
+		Response response = client.downloadRange("multichunks/multichunk-1", localFile, 2000, 2999, null);
+		assertEquals(206, response.getCode());
+		assertEquals(1000L, response.getContent());
+		assertArrayEquals(Arrays.copyOfRange(content, 2000, 3000), Arrays.copyOfRange(Files.readAllBytes(localFile.toPath()), 2000, 3000));
+	}
+
+	@Test
+	public void testHeadDeleteAndListing() throws Exception {
+		server.getObjects().put("databases/database-1", new FakeSwiftServer.StoredObject(content(10), "application/octet-stream"));
+		server.getObjects().put("databases/database-2", new FakeSwiftServer.StoredObject(content(10), "application/octet-stream"));
+
+		assertEquals(200, client.head("databases/database-1").getCode());
+		assertEquals(404, client.head("databases/missing").getCode());
+
+		@SuppressWarnings("unchecked")
+		List<ListingEntry> entries = (List<ListingEntry>) client.listDirectory("databases/", null, 1000).getContent();
+		assertEquals(2, entries.size());
+		assertEquals("databases/database-1", entries.get(0).getName());
+
+		assertEquals(204, client.delete("databases/database-1").getCode());
+		assertFalse(server.getObjects().containsKey("databases/database-1"));
+	}
+
+	@Test
+	public void testStreamedBody() throws Exception {
+		byte[] content = content(100000);
+		server.getObjects().put("multichunks/multichunk-1", new FakeSwiftServer.StoredObject(content, "application/octet-stream"));
+
+		try (Response response = client.open("multichunks/multichunk-1")) {
+			assertEquals(200, response.getCode());
+			response.getBody().writeTo(localFile.toPath());
+		}
+		assertArrayEquals(content, Files.readAllBytes(localFile.toPath()));
+
+		try (Response response = client.open("multichunks/missing")) {
+			assertEquals(404, response.getCode());
+			assertTrue(response.getBody().asText().contains("Not Found"));
+		}
+	}
+
+	@Test
+	public void testConcurrentDownloadsToFiles() throws Exception {
+		byte[] content = content(200000);
+		List<File> localFiles = new ArrayList<>();
+		List<CompletableFuture<Response>> downloads = new ArrayList<>();
+		try {
+			for (int i = 0; i < 8; i++) {
+				server.getObjects().put("multichunks/multichunk-" + i, new FakeSwiftServer.StoredObject(content, "application/octet-stream"));
+				File file = File.createTempFile("hubic-transport", ".data");
+				localFiles.add(file);
+				downloads.add(client.downloadAsync("multichunks/multichunk-" + i, file));
+			}
+
+			for (int i = 0; i < downloads.size(); i++) {
+				assertEquals(200, downloads.get(i).get(10, TimeUnit.SECONDS).getCode());
+				assertArrayEquals(content, Files.readAllBytes(localFiles.get(i).toPath()));
+			}
+		} finally {
+			for (File file : localFiles) {
+				file.delete();
+			}
+		}
+	}
+
+	@Test
+	public void testRetriesTransientFailures() throws Exception {
+		server.failRequests("PUT", "/default/databases/", 503, 2);
+
+		assertEquals(201, client.createDirectory("databases/database-1").getCode());
+		assertEquals(2, client.getRetryCount());
+	}
+
+	private static byte[] content(int length) {
+		byte[] content = new byte[length];
+		for (int i = 0; i < length; i++) {
+			content[i] = (byte) (i * 31);
+		}
+		return content;
+	}
+}
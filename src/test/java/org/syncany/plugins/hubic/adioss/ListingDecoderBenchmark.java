@@ -0,0 +1,118 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Compares decoding a synthetic 100k-entry container listing with
+ * {@link ListingDecoder} against the previous approach of reading the whole
+ * response into a string and parsing it into a Gson tree.  Reports the time
+ * and the bytes allocated per decode.
+ */
+public class ListingDecoderBenchmark {
+	private static final int ENTRIES = 100000;
+	private static final int WARMUP_ITERATIONS = 10;
+	private static final int MEASURED_ITERATIONS = 20;
+
+	private interface Decoder {
+		List<ListingEntry> decode(byte[] listing) throws IOException;
+	}
+
+	public static void main(String[] args) throws Exception {
+		byte[] listing = createListing();
+		System.out.println("listing size: " + (listing.length / 1024) + " KB, " + ENTRIES + " entries");
+		System.out.println("decoder\tms/op\tMB allocated/op");
+
+		run("string+tree", listing, ListingDecoderBenchmark::decodeWithTree);
+		run("streaming", listing, bytes -> ListingDecoder.decode(new ByteArrayInputStream(bytes)));
+	}
+
+	private static void run(String name, byte[] listing, Decoder decoder) throws IOException {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			check(decoder.decode(listing));
+		}
+
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+		long start = System.nanoTime();
+		for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+			check(decoder.decode(listing));
+		}
+		long elapsed = System.nanoTime() - start;
+		long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+		System.out.println(name + "\t" + String.format("%.1f", elapsed / 1e6 / MEASURED_ITERATIONS)
+				+ "\t" + String.format("%.1f", allocated / 1048576.0 / MEASURED_ITERATIONS));
+	}
+
+	private static void check(List<ListingEntry> entries) {
+		if (entries.size() != ENTRIES) {
+			throw new IllegalStateException("Decoded " + entries.size() + " entries");
+		}
+	}
+
+	/**
+	 * The decoding previously done by HttpAPI and HubicTransferManager.list().
+	 */
+	private static List<ListingEntry> decodeWithTree(byte[] listing) throws IOException {
+		StringBuilder response = new StringBuilder();
+		try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(listing), StandardCharsets.UTF_8))) {
+			String inputLine;
+			while ((inputLine = bufferedReader.readLine()) != null) {
+				response.append(inputLine);
+			}
+		}
+
+		JsonArray fileArray = new JsonParser().parse(response.toString()).getAsJsonArray();
+		List<ListingEntry> entries = new ArrayList<>();
+		for (JsonElement fileElement : fileArray) {
+			JsonObject fileObject = (JsonObject) fileElement;
+			entries.add(new ListingEntry(fileObject.get("name").getAsString(), fileObject.get("content_type").getAsString()));
+		}
+		return entries;
+	}
+
+	private static byte[] createListing() {
+		StringBuilder listing = new StringBuilder("[");
+		for (int i = 0; i < ENTRIES; i++) {
+			if (i > 0) {
+				listing.append(',');
+			}
+			listing.append(String.format("{\"hash\": \"%032x\", \"last_modified\": \"2017-01-01T12:00:00.000000\", \"bytes\": %d, "
+					+ "\"name\": \"multichunks/multichunk-%040x\", \"content_type\": \"application/octet-stream\"}", i, 4 * 1024 * 1024, i));
+		}
+		return listing.append(']').toString().getBytes(StandardCharsets.UTF_8);
+	}
+}
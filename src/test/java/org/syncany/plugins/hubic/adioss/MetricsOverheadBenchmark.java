@@ -0,0 +1,79 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.syncany.api.transfer.features.PathAwareRemoteFileType;
+
+/**
+ * Measures what recording a request in the {@link ClientMetrics} costs, from
+ * one thread and from many at once, as the transfer threads do.  The cost is
+ * the elapsed time divided by the number of requests recorded by all the
+ * threads, so on fewer cores than threads it includes no waiting for a core.
+ * It should be well under a microsecond, against the tens of milliseconds of
+ * any request to hubiC.
+ */
+public class MetricsOverheadBenchmark {
+	private static final int RECORDS_PER_THREAD = 2000000;
+	private static final int[] THREAD_COUNTS = { 1, 4, 16 };
+
+	public static void main(String[] args) throws Exception {
+		ClientMetrics metrics = new ClientMetrics(path -> path.startsWith("multichunks/") ? PathAwareRemoteFileType.Multichunk : null);
+		HttpRequest request = HttpRequest.put("http://localhost/default/multichunks/multichunk-1").body(new byte[1000]);
+		Response response = new Response(201, new HashMap<String, List<String>>(), null);
+
+		// Warms up the JIT
+		record(metrics, request, response, 1, RECORDS_PER_THREAD);
+
+		System.out.println("threads\tns per request");
+		for (int threadCount : THREAD_COUNTS) {
+			long nanos = record(metrics, request, response, threadCount, RECORDS_PER_THREAD);
+			System.out.printf("%d\t%.1f%n", threadCount, (double) nanos / threadCount / RECORDS_PER_THREAD);
+		}
+	}
+
+	/**
+	 * @return the elapsed time for all the threads to record their requests
+	 */
+	private static long record(ClientMetrics metrics, HttpRequest request, Response response, int threadCount, int records)
+			throws InterruptedException {
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < threadCount; i++) {
+			threads.add(new Thread(() -> {
+				for (int j = 0; j < records; j++) {
+					ClientMetrics.Cell cell = metrics.start(ClientMetrics.Operation.UPLOAD, "multichunks/multichunk-1");
+					metrics.finish(cell, System.nanoTime(), request, response);
+				}
+			}));
+		}
+
+		long start = System.nanoTime();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return System.nanoTime() - start;
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonElement;
+
+public class ResponseBodyTest {
+	private FakeSwiftServer server;
+	private HubicClient client;
+	private File localFile;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new FakeSwiftServer();
+		server.start();
+		client = new HubicClient(server.getEndpoint(), "test-token", new RetryPolicy(3, 1, 10));
+		localFile = File.createTempFile("hubic-response-body", ".data");
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		localFile.delete();
+	}
+
+	@Test
+	public void testBodyStreamedAsRead() throws Exception {
+		byte[] data = storeObject("multichunks/multichunk-1", 200000);
+
+		try (Response response = client.open("multichunks/multichunk-1")) {
+			assertEquals(200, response.getCode());
+			assertEquals(Integer.toString(data.length), response.getHeader("Content-Length"));
+
+			InputStream inputStream = response.getBody().getStream();
+			byte[] first = new byte[10];
+			assertEquals(10, inputStream.read(first));
+			assertEquals(data[0], first[0]);
+		}
+	}
+
+	@Test
+	public void testErrorBodyKept() throws Exception {
+		try (Response response = client.open("multichunks/missing")) {
+			assertEquals(404, response.getCode());
+			assertTrue(response.getBody().asText().contains("Not Found"));
+		}
+	}
+
+	@Test
+	public void testTypedAccessors() throws Exception {
+		byte[] data = storeObject("databases/database-1", 100000);
+		server.getObjects().put("syncany", new FakeSwiftServer.StoredObject("{\"version\": 1}".getBytes(StandardCharsets.UTF_8), "application/json"));
+
+		try (Response response = client.open("databases/database-1")) {
+			response.getBody().writeTo(localFile.toPath());
+		}
+		assertArrayEquals(data, Files.readAllBytes(localFile.toPath()));
+
+		try (Response response = client.open("syncany")) {
+			JsonElement json = response.getBody().asJson();
+			assertEquals(1, json.getAsJsonObject().get("version").getAsInt());
+		}
+	}
+
+	@Test
+	public void testBodyReadOnlyOnce() throws Exception {
+		storeObject("databases/database-1", 10);
+
+		try (Response response = client.open("databases/database-1")) {
+			response.getBody().asText();
+			try {
+				response.getBody().getStream();
+				fail("Expected an IllegalStateException");
+			} catch (IllegalStateException e) {
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void testConnectionReusedAfterRead() throws Exception {
+		storeObject("databases/database-1", 1000);
+
+		for (int i = 0; i < 5; i++) {
+			try (Response response = client.open("databases/database-1")) {
+				response.getBody().writeTo(localFile.toPath());
+			}
+			assertEquals(1000, localFile.length());
+			try (Response response = client.open("databases/missing")) {
+				assertEquals(404, response.getCode());
+			}
+		}
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	@Test
+	public void testUnreadBodiesKeepNoContent() throws Exception {
+		storeObject("databases/database-1", 1000);
+
+		Response response = client.head("databases/database-1");
+		assertEquals(200, response.getCode());
+		assertNull(response.getContent());
+		assertNull(response.getBody());
+
+		response = client.delete("databases/database-1");
+		assertEquals(204, response.getCode());
+		assertNull(response.getContent());
+	}
+
+	private byte[] storeObject(String path, int size) {
+		byte[] data = new byte[size];
+		new Random().nextBytes(data);
+		server.getObjects().put(path, new FakeSwiftServer.StoredObject(data, "application/octet-stream"));
+		return data;
+	}
+}
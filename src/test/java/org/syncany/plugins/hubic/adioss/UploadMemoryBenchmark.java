@@ -0,0 +1,106 @@
+/*
+ * This file is part of the client based on the HubicPOC project found at
+ * https://github.com/adioss/HubicPOC.  This file is licensed under
+ * Apache 2.0 even though Syncany as a whole is licensed under GPL 3.
+ * 
+ * Copyright 2017 Nigel Westbury
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.syncany.plugins.hubic.adioss;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Uploads files of increasing size to a local HTTP server that discards the
+ * body, and reports the peak heap used during each upload.  With the body
+ * streamed at a fixed length the peak should stay flat whatever the file size.
+ *
+ * <p>Run with a small heap, e.g. {@code java -Xmx64m ... UploadMemoryBenchmark},
+ * to make any buffering of the whole body fail loudly.
+ */
+public class UploadMemoryBenchmark {
+	private static final long MB = 1024 * 1024;
+	private static final long[] FILE_SIZES = { 1 * MB, 16 * MB, 64 * MB, 256 * MB };
+
+	public static void main(String[] args) throws Exception {
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", exchange -> {
+			byte[] buffer = new byte[64 * 1024];
+			try (InputStream body = exchange.getRequestBody()) {
+				while (body.read(buffer) != -1) {
+					// Discard
+				}
+			}
+			exchange.sendResponseHeaders(201, -1);
+			exchange.close();
+		});
+		server.start();
+
+		String url = "http://localhost:" + server.getAddress().getPort() + "/default/benchmark";
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+		try {
+			System.out.println("file size (MB)\tpeak heap delta (MB)\ttime (ms)");
+
+			for (long size : FILE_SIZES) {
+				File file = File.createTempFile("hubic-upload-benchmark", ".bin");
+				file.deleteOnExit();
+				try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+					randomAccessFile.setLength(size);
+				}
+
+				System.gc();
+				long baseline = memory.getHeapMemoryUsage().getUsed();
+				AtomicLong peak = new AtomicLong(baseline);
+
+				Thread sampler = new Thread(() -> {
+					while (!Thread.currentThread().isInterrupted()) {
+						peak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+						try {
+							Thread.sleep(1);
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				});
+				sampler.setDaemon(true);
+				sampler.start();
+
+				long start = System.nanoTime();
+				Response response = new HttpAPI().execute(HttpRequest.put(url).body(file.toPath()));
+				long elapsed = (System.nanoTime() - start) / 1000000;
+
+				sampler.interrupt();
+				sampler.join();
+				file.delete();
+
+				if (response.getCode() != 201) {
+					throw new IllegalStateException("Unexpected response code " + response.getCode());
+				}
+
+				System.out.println((size / MB) + "\t" + ((peak.get() - baseline) / MB) + "\t" + elapsed);
+			}
+		} finally {
+			server.stop(0);
+		}
+	}
+}